@@ -0,0 +1,38 @@
+package ru.bestaford.bstorage.benchmark;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.User;
+import org.openjdk.jmh.annotations.*;
+import ru.bestaford.bstorage.BStorageBot;
+
+@State(Scope.Benchmark)
+public abstract class BotState {
+
+    @Param({"1000", "100000", "10000000"})
+    public int rows;
+
+    public SyntheticData data;
+    public FakeBotApi botApi;
+    public BStorageBot bot;
+    public User user;
+
+    @Setup(Level.Trial)
+    public void setUpBot() throws Exception {
+        data = new SyntheticData(rows);
+        data.generate();
+        botApi = new FakeBotApi();
+        bot = new BStorageBot(botApi.createTelegramBot(), data.jdbcUrl, data.indexPath, 1);
+        user = BotUtils.fromJson(String.format("{\"id\":%d,\"is_bot\":false,\"first_name\":\"benchmark\"}", SyntheticData.USER_ID), User.class);
+    }
+
+    @TearDown(Level.Iteration)
+    public void dropRequests() {
+        bot.requestScheduler.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownBot() throws Exception {
+        bot.stop();
+        botApi.close();
+    }
+}
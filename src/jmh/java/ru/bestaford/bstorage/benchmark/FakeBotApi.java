@@ -0,0 +1,181 @@
+package ru.bestaford.bstorage.benchmark;
+
+import com.pengrad.telegrambot.TelegramBot;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public final class FakeBotApi implements AutoCloseable {
+
+    public static final String TOKEN = "0:benchmark";
+    public static final long BOT_ID = 1;
+    public static final int THREADS = 8;
+    public static final int MAX_UPDATES_LIMIT = 100;
+    public static final Pattern UPDATE_ID_PATTERN = Pattern.compile("\"update_id\"\\s*:\\s*\\d+");
+
+    public final HttpServer server;
+    public final ExecutorService executor;
+    public final Map<String, LongAdder> methodToCountMap;
+    public final List<Consumer<Request>> listeners;
+
+    private final AtomicInteger messageId;
+    private final Deque<PendingUpdate> updates;
+    private int updateId;
+
+    public FakeBotApi() throws IOException {
+        this(0);
+    }
+
+    public FakeBotApi(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newFixedThreadPool(THREADS);
+        methodToCountMap = new ConcurrentHashMap<>();
+        listeners = new CopyOnWriteArrayList<>();
+        messageId = new AtomicInteger();
+        updates = new ArrayDeque<>();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String getApiUrl() {
+        return String.format("http://%s:%d/bot", server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    public TelegramBot createTelegramBot() {
+        return new TelegramBot.Builder(TOKEN).apiUrl(getApiUrl()).build();
+    }
+
+    public void addListener(Consumer<Request> listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized void addUpdate(String update) {
+        updateId++;
+        updates.add(new PendingUpdate(updateId, setUpdateId(update, updateId)));
+        notifyAll();
+    }
+
+    public static String setUpdateId(String update, int id) {
+        Matcher matcher = UPDATE_ID_PATTERN.matcher(update);
+        if (matcher.find()) {
+            return matcher.replaceFirst("\"update_id\":" + id);
+        }
+        return "{\"update_id\":" + id + "," + update.substring(update.indexOf('{') + 1);
+    }
+
+    public synchronized int getPendingUpdateCount() {
+        return updates.size();
+    }
+
+    private synchronized String getUpdates(Map<String, String> parameters) throws InterruptedException {
+        int offset = Integer.parseInt(parameters.getOrDefault("offset", "0"));
+        int limit = Math.min(Integer.parseInt(parameters.getOrDefault("limit", Integer.toString(MAX_UPDATES_LIMIT))), MAX_UPDATES_LIMIT);
+        long timeout = TimeUnit.SECONDS.toNanos(Long.parseLong(parameters.getOrDefault("timeout", "0")));
+        while (!updates.isEmpty() && updates.peek().id() < offset) {
+            updates.remove();
+        }
+        long deadline = System.nanoTime() + timeout;
+        while (updates.isEmpty() && deadline - System.nanoTime() > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, deadline - System.nanoTime());
+        }
+        StringJoiner result = new StringJoiner(",", "[", "]");
+        Iterator<PendingUpdate> iterator = updates.iterator();
+        for (int i = 0; i < limit && iterator.hasNext(); i++) {
+            result.add(iterator.next().json());
+        }
+        return result.toString();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange; InputStream body = exchange.getRequestBody()) {
+            String path = exchange.getRequestURI().getPath();
+            String method = path.substring(path.lastIndexOf('/') + 1);
+            Map<String, String> parameters = parseParameters(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            String query = exchange.getRequestURI().getRawQuery();
+            if (query != null) {
+                parameters.putAll(parseParameters(query));
+            }
+            methodToCountMap.computeIfAbsent(method, m -> new LongAdder()).increment();
+            String result;
+            try {
+                result = getResult(method, parameters);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            byte[] response = ("{\"ok\":true,\"result\":" + result + "}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(response);
+            }
+        }
+    }
+
+    private String getResult(String method, Map<String, String> parameters) throws InterruptedException {
+        if (method.equals("getMe")) {
+            return String.format("{\"id\":%d,\"is_bot\":true,\"first_name\":\"bstorage\",\"username\":\"bstorage_bot\"}", BOT_ID);
+        }
+        if (method.equals("getUpdates")) {
+            return getUpdates(parameters);
+        }
+        int id = 0;
+        String result = "true";
+        if (method.startsWith("send") || method.equals("editMessageText")) {
+            id = parameters.containsKey("message_id") ? Integer.parseInt(parameters.get("message_id")) : messageId.incrementAndGet();
+            result = String.format("{\"message_id\":%d,\"date\":%d,\"chat\":{\"id\":%s,\"type\":\"private\"}}",
+                    id, TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()), parameters.getOrDefault("chat_id", "0"));
+        }
+        Request request = new Request(method, parameters, id);
+        for (Consumer<Request> listener : listeners) {
+            listener.accept(request);
+        }
+        return result;
+    }
+
+    private static Map<String, String> parseParameters(String form) {
+        Map<String, String> parameters = new HashMap<>();
+        for (String pair : form.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int index = pair.indexOf('=');
+            String name = URLDecoder.decode(index < 0 ? pair : pair.substring(0, index), StandardCharsets.UTF_8);
+            String value = index < 0 ? "" : URLDecoder.decode(pair.substring(index + 1), StandardCharsets.UTF_8);
+            parameters.put(name, value);
+        }
+        return parameters;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public record Request(String method, Map<String, String> parameters, int messageId) {
+    }
+
+    private record PendingUpdate(int id, String json) {
+    }
+}
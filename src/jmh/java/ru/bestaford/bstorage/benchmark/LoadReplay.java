@@ -0,0 +1,363 @@
+package ru.bestaford.bstorage.benchmark;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Message;
+import com.pengrad.telegrambot.model.Update;
+import ru.bestaford.bstorage.BStorageBot;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public final class LoadReplay {
+
+    public static final int ALBUM_MIN_SIZE = 2;
+    public static final int ALBUM_MAX_SIZE = 10;
+    public static final int TOP_PAGES = 5;
+    public static final long INLINE_TYPING_DELAY_MILLIS = 150;
+    public static final long CLICK_DELAY_MILLIS = 300;
+    public static final long DRAIN_TIMEOUT_SECONDS = 60;
+    public static final Pattern CALLBACK_DATA_PATTERN = Pattern.compile("\"callback_data\"\\s*:\\s*\"([^\"]+)\"");
+
+    public final String scenario;
+    public final double rate;
+    public final int duration;
+    public final int users;
+    public final int rows;
+    public final Path file;
+    public final boolean webhook;
+    public final int apiPort;
+    public final boolean external;
+    public final String webhookUrl;
+
+    public final Random random;
+    public final SyntheticData data;
+    public final ScheduledExecutorService scheduler;
+    public final HttpClient httpClient;
+    public final Map<String, Queue<Pending>> keyToPendingMap;
+    public final Map<String, LongAdder> kindToSentMap;
+    public final Map<String, Queue<Long>> kindToLatenciesMap;
+    public final Map<Long, Integer> chatIdToPagesMap;
+    public final Set<String> replayedMediaGroupIds;
+    public final LongAdder unmatched;
+    public final LongAdder rejected;
+
+    private final AtomicInteger sequence;
+    private final AtomicInteger updateId;
+    private FakeBotApi botApi;
+    private String deliveryUrl;
+
+    public LoadReplay(Map<String, String> options) {
+        scenario = options.getOrDefault("scenario", "mixed");
+        rate = Double.parseDouble(options.getOrDefault("rate", "20"));
+        duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        users = Integer.parseInt(options.getOrDefault("users", "100"));
+        rows = Integer.parseInt(options.getOrDefault("rows", "100000"));
+        file = options.containsKey("file") ? Path.of(options.get("file")) : null;
+        webhook = options.containsKey("webhook");
+        apiPort = Integer.parseInt(options.getOrDefault("api-port", "0"));
+        external = options.containsKey("external");
+        webhookUrl = options.get("webhook-url");
+
+        random = new Random();
+        data = new SyntheticData(rows);
+        scheduler = Executors.newScheduledThreadPool(2);
+        httpClient = HttpClient.newHttpClient();
+        keyToPendingMap = new ConcurrentHashMap<>();
+        kindToSentMap = new ConcurrentSkipListMap<>();
+        kindToLatenciesMap = new ConcurrentHashMap<>();
+        chatIdToPagesMap = new ConcurrentHashMap<>();
+        replayedMediaGroupIds = ConcurrentHashMap.newKeySet();
+        unmatched = new LongAdder();
+        rejected = new LongAdder();
+        sequence = new AtomicInteger();
+        updateId = new AtomicInteger();
+    }
+
+    public void run() throws Exception {
+        botApi = new FakeBotApi(apiPort);
+        botApi.addListener(this::onRequest);
+        BStorageBot bot = null;
+        if (external) {
+            deliveryUrl = webhookUrl;
+            System.out.printf("Fake Bot API listening, start the bot with BSTORAGE_API_URL=%s%n", botApi.getApiUrl());
+            while (!botApi.methodToCountMap.containsKey("getMe")) {
+                Thread.sleep(100);
+            }
+        } else {
+            data.generate();
+            bot = new BStorageBot(botApi.createTelegramBot(), data.jdbcUrl, data.indexPath, 1);
+            if (webhook) {
+                int port;
+                try (ServerSocket socket = new ServerSocket(0)) {
+                    port = socket.getLocalPort();
+                }
+                bot.startWebhook(port, null, null);
+                deliveryUrl = "http://127.0.0.1:" + port + "/";
+            } else {
+                bot.start();
+            }
+        }
+
+        List<String> lines = file == null ? null : Files.readAllLines(file);
+        int count = lines == null ? (int) (rate * duration) : lines.size();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            String line = lines == null ? null : lines.get(i);
+            scheduler.schedule(() -> {
+                try {
+                    if (line == null) {
+                        generate(scenario);
+                    } else if (!line.isBlank()) {
+                        replay(line);
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }, (long) (i * TimeUnit.SECONDS.toNanos(1) / rate), TimeUnit.NANOSECONDS);
+        }
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis((long) (count * TimeUnit.SECONDS.toNanos(1) / rate)));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_TIMEOUT_SECONDS);
+        while (getPendingCount() > 0 && deadline - System.nanoTime() > 0) {
+            Thread.sleep(100);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        scheduler.shutdownNow();
+        if (bot != null) {
+            bot.stop();
+        }
+        botApi.close();
+        report(elapsed);
+    }
+
+    private void generate(String scenario) {
+        long userId = 1 + random.nextInt(users);
+        switch (scenario) {
+            case "files" -> sendFile(userId, null, data.getTags(random));
+            case "albums" -> sendAlbum(userId);
+            case "inline" -> typeInlineQuery(userId);
+            case "top" -> sendTop(userId);
+            case "mixed" -> {
+                double value = random.nextDouble();
+                if (value < 0.5) {
+                    generate("inline");
+                } else if (value < 0.75) {
+                    generate("files");
+                } else if (value < 0.9) {
+                    generate("albums");
+                } else {
+                    generate("top");
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown scenario " + scenario);
+        }
+    }
+
+    private void sendFile(long userId, String mediaGroupId, String caption) {
+        int messageId = sequence.incrementAndGet();
+        String fileUniqueId = "LOAD" + Integer.toString(messageId, 36);
+        StringBuilder message = new StringBuilder(getMessage(userId, messageId));
+        message.setLength(message.length() - 1);
+        if (mediaGroupId != null) {
+            message.append(",\"media_group_id\":\"").append(mediaGroupId).append('"');
+        }
+        if (caption != null) {
+            message.append(",\"caption\":\"").append(caption).append('"');
+        }
+        message.append(String.format(",\"photo\":[{\"file_id\":\"BAAC%s\",\"file_unique_id\":\"%s\",\"width\":1280,\"height\":720}]}", fileUniqueId, fileUniqueId));
+        String key = "message:" + userId + ":" + messageId;
+        inject(mediaGroupId == null ? "file" : "album", caption == null && mediaGroupId != null ? null : key, "{\"message\":" + message + "}");
+    }
+
+    private void sendAlbum(long userId) {
+        String mediaGroupId = "LOAD" + sequence.incrementAndGet();
+        int size = ALBUM_MIN_SIZE + random.nextInt(ALBUM_MAX_SIZE - ALBUM_MIN_SIZE + 1);
+        sendFile(userId, mediaGroupId, Objects.requireNonNullElse(data.getTags(random), data.getTag(random)));
+        for (int i = 1; i < size; i++) {
+            sendFile(userId, mediaGroupId, null);
+        }
+    }
+
+    private void typeInlineQuery(long userId) {
+        String query = data.getTag(random);
+        for (int i = 1; i <= query.length(); i++) {
+            String prefix = query.substring(0, i);
+            scheduler.schedule(() -> {
+                String id = "LOAD" + sequence.incrementAndGet();
+                inject("inline", "inline:" + id, String.format("{\"inline_query\":{\"id\":\"%s\",\"from\":%s,\"query\":\"%s\",\"offset\":\"\"}}", id, getUser(userId), prefix));
+            }, (i - 1) * INLINE_TYPING_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sendTop(long userId) {
+        int messageId = sequence.incrementAndGet();
+        String message = getMessage(userId, messageId);
+        chatIdToPagesMap.put(userId, TOP_PAGES);
+        inject("command", "chat:" + userId, "{\"message\":" + message.substring(0, message.length() - 1) + ",\"text\":\"/top\"}}");
+    }
+
+    private void click(long chatId, int messageId, String data) {
+        String id = "LOAD" + sequence.incrementAndGet();
+        inject("callback", "callback:" + id, String.format("{\"callback_query\":{\"id\":\"%s\",\"from\":%s,\"chat_instance\":\"%d\",\"data\":\"%s\",\"message\":{\"message_id\":%d,\"date\":0,\"chat\":{\"id\":%d,\"type\":\"private\"}}}}",
+                id, getUser(chatId), chatId, data, messageId, chatId));
+    }
+
+    private void replay(String line) {
+        Update update = BotUtils.parseUpdate(line);
+        if (update.inlineQuery() != null) {
+            inject("inline", "inline:" + update.inlineQuery().id(), line);
+        } else if (update.callbackQuery() != null) {
+            inject("callback", "callback:" + update.callbackQuery().id(), line);
+        } else if (update.message() != null) {
+            Message message = update.message();
+            long chatId = message.chat().id();
+            String text = message.text();
+            if (text != null && text.startsWith("/")) {
+                inject("command", "chat:" + chatId, line);
+            } else if (text != null) {
+                inject("text", null, line);
+            } else if (message.mediaGroupId() != null) {
+                boolean first = replayedMediaGroupIds.add(message.mediaGroupId());
+                inject("album", first ? "message:" + chatId + ":" + message.messageId() : null, line);
+            } else {
+                inject("file", "message:" + chatId + ":" + message.messageId(), line);
+            }
+        } else {
+            inject("other", null, line);
+        }
+    }
+
+    private void inject(String kind, String key, String update) {
+        if (key != null) {
+            keyToPendingMap.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).add(new Pending(kind, System.nanoTime()));
+        }
+        kindToSentMap.computeIfAbsent(kind, k -> new LongAdder()).increment();
+        if (deliveryUrl == null) {
+            botApi.addUpdate(update);
+            return;
+        }
+        HttpRequest request = HttpRequest.newBuilder(URI.create(deliveryUrl))
+                .POST(HttpRequest.BodyPublishers.ofString(FakeBotApi.setUpdateId(update, updateId.incrementAndGet())))
+                .build();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+            if (e != null || response.statusCode() != 200) {
+                rejected.increment();
+            }
+        });
+    }
+
+    private void onRequest(FakeBotApi.Request request) {
+        Map<String, String> parameters = request.parameters();
+        String key = switch (request.method()) {
+            case "answerInlineQuery" -> "inline:" + parameters.get("inline_query_id");
+            case "answerCallbackQuery" -> "callback:" + parameters.get("callback_query_id");
+            case "sendMessage" -> parameters.containsKey("reply_to_message_id")
+                    ? "message:" + parameters.get("chat_id") + ":" + parameters.get("reply_to_message_id")
+                    : "chat:" + parameters.get("chat_id");
+            default -> null;
+        };
+        if (key != null) {
+            Queue<Pending> queue = keyToPendingMap.get(key);
+            Pending pending = queue == null ? null : queue.poll();
+            if (pending == null) {
+                unmatched.increment();
+            } else {
+                kindToLatenciesMap.computeIfAbsent(pending.kind(), k -> new ConcurrentLinkedQueue<>()).add(System.nanoTime() - pending.start());
+            }
+        }
+        String replyMarkup = parameters.get("reply_markup");
+        if (replyMarkup == null || parameters.get("chat_id") == null) {
+            return;
+        }
+        long chatId = Long.parseLong(parameters.get("chat_id"));
+        Integer pages = chatIdToPagesMap.get(chatId);
+        if (pages == null) {
+            return;
+        }
+        if (pages > 1) {
+            chatIdToPagesMap.put(chatId, pages - 1);
+        } else {
+            chatIdToPagesMap.remove(chatId);
+        }
+        List<String> buttons = new ArrayList<>();
+        Matcher matcher = CALLBACK_DATA_PATTERN.matcher(replyMarkup);
+        while (matcher.find()) {
+            buttons.add(matcher.group(1));
+        }
+        if (!buttons.isEmpty()) {
+            String next = buttons.get(Math.min(3, buttons.size() - 1));
+            scheduler.schedule(() -> click(chatId, request.messageId(), next), CLICK_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private int getPendingCount() {
+        int count = 0;
+        for (Queue<Pending> queue : keyToPendingMap.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    private void report(long elapsed) {
+        double seconds = elapsed / 1e9;
+        System.out.printf("%n%-10s %8s %8s %10s %10s %10s %10s%n", "kind", "sent", "answered", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        long sent = 0;
+        long answered = 0;
+        for (Map.Entry<String, LongAdder> entry : kindToSentMap.entrySet()) {
+            Queue<Long> queue = kindToLatenciesMap.getOrDefault(entry.getKey(), new ArrayDeque<>());
+            long[] latencies = queue.stream().mapToLong(Long::longValue).sorted().toArray();
+            sent += entry.getValue().sum();
+            answered += latencies.length;
+            System.out.printf("%-10s %8d %8d %10.1f %10.1f %10.1f %10.1f%n", entry.getKey(), entry.getValue().sum(), latencies.length,
+                    getPercentile(latencies, 0.5), getPercentile(latencies, 0.9), getPercentile(latencies, 0.99), getPercentile(latencies, 1));
+        }
+        System.out.printf("%nSent %d updates and received %d answers in %.1f s (%.1f updates/s, %.1f answers/s)%n", sent, answered, seconds, sent / seconds, answered / seconds);
+        System.out.printf("Unanswered: %d, unmatched responses: %d, rejected deliveries: %d%n", getPendingCount(), unmatched.sum(), rejected.sum());
+        System.out.printf("Bot API calls: %s%n", new TreeMap<>(botApi.methodToCountMap));
+    }
+
+    private static double getPercentile(long[] latencies, double percentile) {
+        if (latencies.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(percentile * latencies.length) - 1;
+        return latencies[Math.max(index, 0)] / 1e6;
+    }
+
+    private static String getUser(long userId) {
+        return String.format("{\"id\":%d,\"is_bot\":false,\"first_name\":\"user%d\"}", userId, userId);
+    }
+
+    private static String getMessage(long userId, int messageId) {
+        return String.format("{\"message_id\":%d,\"date\":%d,\"chat\":{\"id\":%d,\"type\":\"private\"},\"from\":%s}",
+                messageId, TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()), userId, getUser(userId));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            String name = args[i].substring(2);
+            boolean flag = i + 1 == args.length || args[i + 1].startsWith("--");
+            options.put(name, flag ? "" : args[++i]);
+        }
+        new LoadReplay(options).run();
+        System.exit(0);
+    }
+
+    public record Pending(String kind, long start) {
+    }
+}
@@ -0,0 +1,71 @@
+package ru.bestaford.bstorage.benchmark;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Message;
+import org.openjdk.jmh.annotations.*;
+import ru.bestaford.bstorage.BStorageBot;
+import ru.bestaford.bstorage.database.FileWriter;
+import ru.bestaford.bstorage.model.File;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SaveBenchmark extends BotState {
+
+    public static final int BATCH_SIZE = BStorageBot.WRITE_BATCH_SIZE;
+
+    public FileWriter fileWriter;
+    public Message message;
+    public Random random;
+    public int fileCount;
+
+    @Setup(Level.Trial)
+    public void setUpWriter() {
+        fileWriter = new FileWriter(bot, 1, Integer.MAX_VALUE, TimeUnit.HOURS.toMillis(1));
+        message = BotUtils.fromJson(String.format("{\"message_id\":1,\"date\":0,\"chat\":{\"id\":%d,\"type\":\"private\"}}", user.id()), Message.class);
+        random = new Random(rows);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE * 2)
+    public void saveAndDeleteFiles() {
+        int first = fileCount;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            write("BENCH" + fileCount++, data.getTags(random));
+        }
+        fileWriter.flush(user.id());
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            write("BENCH" + (first + i), null);
+        }
+        fileWriter.flush(user.id());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void retagFiles() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            String fileUniqueId = "AQAD" + Integer.toString(random.nextInt(data.getUserFileCount()), 36);
+            write(fileUniqueId, Objects.requireNonNullElse(data.getTags(random), data.getTag(random)));
+        }
+        fileWriter.flush(user.id());
+    }
+
+    private void write(String fileUniqueId, String tags) {
+        fileWriter.write(new FileWriter.Write(user, message, fileUniqueId, "BAAC" + fileUniqueId, null, File.Type.PHOTO, tags, Timestamp.valueOf(LocalDateTime.now())));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownWriter() {
+        for (ScheduledExecutorService executor : fileWriter.executors) {
+            executor.shutdownNow();
+        }
+    }
+}
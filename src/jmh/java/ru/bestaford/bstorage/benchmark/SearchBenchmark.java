@@ -0,0 +1,87 @@
+package ru.bestaford.bstorage.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.bestaford.bstorage.BStorageBot;
+import ru.bestaford.bstorage.model.FilePage;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SearchBenchmark extends BotState {
+
+    public static final long RANDOM_SEED = 42;
+
+    public String recentOffset;
+    public String randomOffset;
+    public String popularTag;
+    public String rareTag;
+    public String twoTags;
+    public String partialTag;
+    public String filter;
+    public String wildcard;
+
+    @Setup(Level.Trial)
+    public void setUpQueries() {
+        recentOffset = bot.findFilesByTags(user, "", "").nextOffset();
+        randomOffset = RANDOM_SEED + ":" + BStorageBot.INLINE_FIRST_PAGE_SIZE;
+        popularTag = data.vocabulary[0];
+        rareTag = data.vocabulary[data.vocabulary.length / 10];
+        twoTags = data.vocabulary[1] + " " + data.vocabulary[2];
+        partialTag = data.vocabulary[0].substring(0, 3);
+        filter = data.vocabulary[0] + "|" + data.vocabulary[3] + " -" + data.vocabulary[1] + " " + partialTag;
+        wildcard = partialTag + "*";
+    }
+
+    @Benchmark
+    public FilePage recent() {
+        return bot.findFilesByTags(user, "", "");
+    }
+
+    @Benchmark
+    public FilePage recentNextPage() {
+        return bot.findFilesByTags(user, "", recentOffset);
+    }
+
+    @Benchmark
+    public FilePage random() {
+        return bot.findFilesByTags(user, "*", "");
+    }
+
+    @Benchmark
+    public FilePage randomNextPage() {
+        return bot.findFilesByTags(user, "*", randomOffset);
+    }
+
+    @Benchmark
+    public FilePage searchPopularTag() {
+        return bot.findFilesByTags(user, popularTag, "");
+    }
+
+    @Benchmark
+    public FilePage searchRareTag() {
+        return bot.findFilesByTags(user, rareTag, "");
+    }
+
+    @Benchmark
+    public FilePage searchTwoTags() {
+        return bot.findFilesByTags(user, twoTags, "");
+    }
+
+    @Benchmark
+    public FilePage searchPartialTag() {
+        return bot.findFilesByTags(user, partialTag, "");
+    }
+
+    @Benchmark
+    public FilePage searchFilter() {
+        return bot.findFilesByTags(user, filter, "");
+    }
+
+    @Benchmark
+    public FilePage searchWildcard() {
+        return bot.findFilesByTags(user, wildcard, "");
+    }
+}
@@ -0,0 +1,223 @@
+package ru.bestaford.bstorage.benchmark;
+
+import ru.bestaford.bstorage.BStorageBot;
+import ru.bestaford.bstorage.database.Database;
+import ru.bestaford.bstorage.database.DatabaseConnection;
+import ru.bestaford.bstorage.metrics.Metrics;
+import ru.bestaford.bstorage.model.File;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Stream;
+
+public final class SyntheticData {
+
+    public static final long USER_ID = 1;
+    public static final int USER_FILES_RATIO = 10;
+    public static final int FILES_PER_USER = 1000;
+    public static final int VOCABULARY_SIZE = 10_000;
+    public static final double ZIPF_EXPONENT = 1.0;
+    public static final double UNTAGGED_RATIO = 0.2;
+    public static final int MAX_TAGS_PER_FILE = 5;
+    public static final int INSERT_BATCH_SIZE = 10_000;
+    public static final LocalDateTime START_DATETIME = LocalDateTime.of(2020, 1, 1, 0, 0);
+    public static final String[] SYLLABLES = {"ka", "lo", "mi", "ne", "ru", "sa", "to", "vi", "ba", "de", "fu", "go", "ha", "ji", "po", "ze"};
+
+    public static final String INSERT_FILE_CONTENT = """
+            INSERT INTO
+                FILE_CONTENTS (ID, FILE_UNIQUE_ID, FILE_ID, FILE_TYPE)
+            VALUES
+                (?, ?, ?, ?)
+            """;
+    public static final String INSERT_FILE = """
+            INSERT INTO
+                FILES (ID, USER_ID, CONTENT_ID, TAGS, DATETIME, SEQ, FILE_NAME)
+            VALUES
+                (?, ?, ?, ?, ?, ?, ?)
+            """;
+    public static final String INSERT_FILE_TAG = """
+            INSERT INTO
+                FILE_TAGS (ID, TAG, USER_ID, DATETIME)
+            VALUES
+                (?, ?, ?, ?)
+            """;
+    public static final String INSERT_USER_TAG = """
+            INSERT INTO
+                USER_TAGS (USER_ID, TAG, COUNT)
+            VALUES
+                (?, ?, ?)
+            """;
+
+    public final int rows;
+    public final Path directory;
+    public final String jdbcUrl;
+    public final Path indexPath;
+    public final String[] vocabulary;
+
+    private final double[] cumulativeWeights;
+
+    public SyntheticData(int rows) {
+        this.rows = rows;
+        directory = Path.of("target", "benchmark", Integer.toString(rows)).toAbsolutePath();
+        jdbcUrl = "jdbc:h2:" + directory.resolve("bstorage");
+        indexPath = directory.resolve("bstorage-index");
+        vocabulary = new String[VOCABULARY_SIZE];
+        cumulativeWeights = new double[VOCABULARY_SIZE];
+        double sum = 0;
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            vocabulary[i] = getWord(i);
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulativeWeights[i] = sum;
+        }
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            cumulativeWeights[i] /= sum;
+        }
+    }
+
+    public int getUserFileCount() {
+        return Math.max(rows / USER_FILES_RATIO, 1);
+    }
+
+    public String getTag(Random random) {
+        int index = Arrays.binarySearch(cumulativeWeights, random.nextDouble());
+        return vocabulary[Math.min(index < 0 ? -index - 1 : index, VOCABULARY_SIZE - 1)];
+    }
+
+    public String getTags(Random random) {
+        if (random.nextDouble() < UNTAGGED_RATIO) {
+            return null;
+        }
+        Set<String> tags = new LinkedHashSet<>();
+        int count = 1 + random.nextInt(MAX_TAGS_PER_FILE);
+        while (tags.size() < count) {
+            tags.add(getTag(random));
+        }
+        return String.join(" ", tags);
+    }
+
+    public void generate() throws Exception {
+        Path marker = directory.resolve("complete");
+        if (Files.exists(marker)) {
+            return;
+        }
+        deleteDirectory();
+        Files.createDirectories(directory);
+        Random random = new Random(rows);
+        try (Database database = new Database(jdbcUrl, BStorageBot.JDBC_USER, BStorageBot.JDBC_PASSWORD, 1, new Metrics());
+             DatabaseConnection databaseConnection = database.getConnection()) {
+            Connection connection = databaseConnection.connection;
+            connection.setAutoCommit(false);
+            try (PreparedStatement contentStatement = connection.prepareStatement(INSERT_FILE_CONTENT);
+                 PreparedStatement fileStatement = connection.prepareStatement(INSERT_FILE);
+                 PreparedStatement fileTagStatement = connection.prepareStatement(INSERT_FILE_TAG);
+                 PreparedStatement tagStatement = connection.prepareStatement(INSERT_USER_TAG)) {
+                int file = 0;
+                long userId = USER_ID;
+                int userFileCount = getUserFileCount();
+                while (file < rows) {
+                    int count = Math.min(userFileCount, rows - file);
+                    Map<String, Integer> tagCountMap = new HashMap<>();
+                    LocalDateTime dateTime = START_DATETIME;
+                    for (int seq = 0; seq < count; seq++, file++) {
+                        String fileUniqueId = "AQAD" + Integer.toString(file, 36);
+                        File.Type type = getType(random);
+                        String tags = getTags(random);
+                        dateTime = dateTime.plusSeconds(1 + random.nextInt(86_400));
+                        for (String tag : BStorageBot.splitTags(tags)) {
+                            tagCountMap.merge(tag, 1, Integer::sum);
+                            fileTagStatement.setLong(1, file + 1);
+                            fileTagStatement.setString(2, tag);
+                            fileTagStatement.setLong(3, userId);
+                            fileTagStatement.setTimestamp(4, Timestamp.valueOf(dateTime));
+                            fileTagStatement.addBatch();
+                        }
+                        contentStatement.setLong(1, file + 1);
+                        contentStatement.setString(2, fileUniqueId);
+                        contentStatement.setString(3, "BAAC" + fileUniqueId);
+                        contentStatement.setByte(4, type.code);
+                        contentStatement.addBatch();
+                        fileStatement.setLong(1, file + 1);
+                        fileStatement.setLong(2, userId);
+                        fileStatement.setLong(3, file + 1);
+                        fileStatement.setString(4, tags);
+                        fileStatement.setTimestamp(5, Timestamp.valueOf(dateTime));
+                        fileStatement.setInt(6, seq);
+                        fileStatement.setString(7, type == File.Type.DOCUMENT ? fileUniqueId + ".pdf" : null);
+                        fileStatement.addBatch();
+                        if ((file + 1) % INSERT_BATCH_SIZE == 0) {
+                            contentStatement.executeBatch();
+                            fileStatement.executeBatch();
+                            fileTagStatement.executeBatch();
+                            connection.commit();
+                        }
+                    }
+                    for (Map.Entry<String, Integer> entry : tagCountMap.entrySet()) {
+                        tagStatement.setLong(1, userId);
+                        tagStatement.setString(2, entry.getKey());
+                        tagStatement.setInt(3, entry.getValue());
+                        tagStatement.addBatch();
+                    }
+                    tagStatement.executeBatch();
+                    userId++;
+                    userFileCount = FILES_PER_USER;
+                }
+                contentStatement.executeBatch();
+                fileStatement.executeBatch();
+                fileTagStatement.executeBatch();
+                connection.commit();
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ALTER SEQUENCE FILE_IDS RESTART WITH " + (rows + 1));
+                statement.execute("ALTER SEQUENCE FILE_CONTENT_IDS RESTART WITH " + (rows + 1));
+                statement.execute("ANALYZE");
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+        }
+        Files.createFile(marker);
+    }
+
+    private void deleteDirectory() throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static File.Type getType(Random random) {
+        double value = random.nextDouble();
+        if (value < 0.6) {
+            return File.Type.PHOTO;
+        } else if (value < 0.75) {
+            return File.Type.GIF;
+        } else if (value < 0.85) {
+            return File.Type.STICKER;
+        } else if (value < 0.92) {
+            return File.Type.VIDEO;
+        } else if (value < 0.96) {
+            return File.Type.DOCUMENT;
+        } else if (value < 0.98) {
+            return File.Type.AUDIO;
+        }
+        return File.Type.VOICE;
+    }
+
+    private static String getWord(int index) {
+        StringBuilder word = new StringBuilder();
+        for (int value = index + SYLLABLES.length; value > 0; value /= SYLLABLES.length) {
+            word.append(SYLLABLES[value % SYLLABLES.length]);
+        }
+        return word.toString();
+    }
+}
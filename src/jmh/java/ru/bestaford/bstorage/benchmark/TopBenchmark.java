@@ -0,0 +1,47 @@
+package ru.bestaford.bstorage.benchmark;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Message;
+import org.openjdk.jmh.annotations.*;
+import ru.bestaford.bstorage.command.TopCommand;
+import ru.bestaford.bstorage.database.DatabaseConnection;
+import ru.bestaford.bstorage.database.Query;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TopBenchmark extends BotState {
+
+    public TopCommand topCommand;
+    public Message message;
+    public int lastPage;
+
+    @Setup(Level.Trial)
+    public void setUpSession() throws Exception {
+        topCommand = (TopCommand) bot.commandMap.get("top");
+        message = BotUtils.fromJson(String.format("{\"message_id\":1,\"date\":0,\"chat\":{\"id\":%d,\"type\":\"private\"}}", user.id()), Message.class);
+        try (DatabaseConnection connection = bot.shardRouter.getShard(user.id()).database.getConnection()) {
+            PreparedStatement statement = connection.prepareStatement(Query.COUNT_USER_TAGS);
+            statement.setLong(1, user.id());
+            try (ResultSet resultSet = bot.executeStatement(statement)) {
+                resultSet.next();
+                lastPage = Math.max((resultSet.getInt(1) - 1) / TopCommand.PAGE_SIZE, 0);
+            }
+        }
+    }
+
+    @Benchmark
+    public void firstPage() throws Exception {
+        topCommand.send(user, 0, message);
+    }
+
+    @Benchmark
+    public void lastPage() throws Exception {
+        topCommand.send(user, lastPage, message);
+    }
+}
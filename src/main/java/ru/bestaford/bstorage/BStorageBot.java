@@ -1,86 +1,258 @@
 package ru.bestaford.bstorage;
 
-import com.pengrad.telegrambot.Callback;
 import com.pengrad.telegrambot.TelegramBot;
 import com.pengrad.telegrambot.UpdatesListener;
 import com.pengrad.telegrambot.model.*;
 import com.pengrad.telegrambot.model.request.*;
+import com.pengrad.telegrambot.request.AnswerCallbackQuery;
 import com.pengrad.telegrambot.request.AnswerInlineQuery;
 import com.pengrad.telegrambot.request.BaseRequest;
 import com.pengrad.telegrambot.request.GetMe;
 import com.pengrad.telegrambot.request.SendMessage;
+import com.pengrad.telegrambot.request.SetWebhook;
 import com.pengrad.telegrambot.response.BaseResponse;
-import org.flywaydb.core.Flyway;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.bestaford.bstorage.cache.ExpiringCache;
+import ru.bestaford.bstorage.cache.InlineQueryCache;
 import ru.bestaford.bstorage.command.*;
+import ru.bestaford.bstorage.database.*;
+import ru.bestaford.bstorage.dispatch.RequestScheduler;
+import ru.bestaford.bstorage.dispatch.UpdateDispatcher;
+import ru.bestaford.bstorage.dispatch.WebhookServer;
+import ru.bestaford.bstorage.metrics.Metrics;
+import ru.bestaford.bstorage.metrics.MetricsServer;
+import ru.bestaford.bstorage.metrics.Timer;
 import ru.bestaford.bstorage.model.File;
+import ru.bestaford.bstorage.model.FilePage;
+import ru.bestaford.bstorage.search.SearchIndex;
+import ru.bestaford.bstorage.search.TagFilter;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.*;
 
-public final class BStorageBot extends TelegramBot {
+public final class BStorageBot {
 
     public static final String VERSION = "1.1.3";
 
     public static final String JDBC_URL = "jdbc:h2:./bstorage";
     public static final String JDBC_USER = "";
     public static final String JDBC_PASSWORD = "";
+    public static final String INDEX_PATH = "./bstorage-index";
 
     public static final String REGEX_WHITESPACES = "\\s+";
     public static final String REGEX_EVERY_WORD = "\\b(\\p{L}+)\\b";
 
+    public static final int INLINE_FIRST_PAGE_SIZE = 20;
+    public static final int INLINE_PAGE_SIZE = 50;
+    public static final int INLINE_CACHE_SIZE = 10_000;
+    public static final int INLINE_CACHE_TTL_SECONDS = 60;
+    public static final int INLINE_CACHE_TIME_SECONDS = 5;
+    public static final int TAG_COMPLETIONS_LIMIT = 10;
+
+    public static final int STATE_CACHE_SIZE = 100_000;
+    public static final int MEDIA_GROUP_TTL_SECONDS = 10;
+    public static final int MESSAGE_TEXT_TTL_SECONDS = 3600;
+    public static final int STATE_CLEANUP_PERIOD_SECONDS = 60;
+
+    public static final int WRITE_THREADS = 4;
+    public static final int WRITE_BATCH_SIZE = 100;
+    public static final int WRITE_BATCH_DELAY_MILLIS = 250;
+
+    public static final double GLOBAL_REQUESTS_PER_SECOND = 30;
+    public static final double CHAT_REQUESTS_PER_SECOND = 1;
+    public static final double CHAT_REQUEST_BURST = 5;
+
+    public static final int WEBHOOK_THREADS = 2;
+
+    public static final int TRANSFER_THREADS = 2;
+    public static final int TRANSFER_QUEUE_CAPACITY = 16;
+
+    public static final int MAINTENANCE_PERIOD_HOURS = 24;
+    public static final double MAINTENANCE_DUTY_CYCLE = 0.25;
+
+    public static final int UPDATE_THREADS = Math.max(Runtime.getRuntime().availableProcessors() * 2, 4);
+    public static final int UPDATE_QUEUE_CAPACITY = 256;
+    public static final int DATABASE_POOL_SIZE = UPDATE_THREADS;
+
+    public static final RowMapper<InlineQueryResult<?>> INLINE_QUERY_RESULT_MAPPER = resultSet -> {
+        String id = Long.toString(resultSet.getLong(1));
+        String fileId = resultSet.getString(2);
+        File.Type type = File.Type.fromCode(resultSet.getByte(3));
+        String fileName = resultSet.getString(4);
+        String title = fileName == null ? " " : fileName;
+        return switch (type) {
+            case PHOTO -> new InlineQueryResultCachedPhoto(id, fileId);
+            case VIDEO -> new InlineQueryResultCachedVideo(id, fileId, title);
+            case DOCUMENT -> new InlineQueryResultCachedDocument(id, fileId, title);
+            case AUDIO -> new InlineQueryResultCachedAudio(id, fileId);
+            case GIF -> new InlineQueryResultCachedGif(id, fileId);
+            case STICKER -> new InlineQueryResultCachedSticker(id, fileId);
+            case VOICE -> new InlineQueryResultCachedVoice(id, fileId, title);
+        };
+    };
+
+    public final TelegramBot telegramBot;
     public final Logger logger;
-    public final Map<String, String> mediaGroupIdToTagsMap;
-    public final Map<Long, String> userIdToMessageTextMap;
+    public final Metrics metrics;
+    public final Timer searchTimer;
+    public final Map<Class<?>, Timer> requestTimerMap;
+    public final ExpiringCache<String, String> mediaGroupIdToTagsMap;
+    public final ExpiringCache<Long, String> userIdToMessageTextMap;
+    public final List<ExpiringCache<?, ?>> stateCaches;
+    public final ScheduledExecutorService scheduler;
     public final Map<String, Command> commandMap;
-    public final Connection connection;
+    public final UpdateDispatcher dispatcher;
+    public final RequestScheduler requestScheduler;
+    public WebhookServer webhookServer;
+    public MetricsServer metricsServer;
+    public final ShardRouter shardRouter;
+    public final InlineQueryCache inlineQueryCache;
+    public final FileWriter fileWriter;
+    public final Maintenance maintenance;
+    public final ThreadPoolExecutor transferExecutor;
+    public final Set<Long> transferUserIds;
+    public final ImportCommand importCommand;
+    public final TagmeCommand tagmeCommand;
     public final ResourceBundle messages;
     public final User me;
 
-    public BStorageBot(String botToken) throws Exception {
-        super(botToken);
-
-        Flyway.configure().dataSource(JDBC_URL, JDBC_USER, JDBC_PASSWORD).load().migrate();
-
+    public BStorageBot(TelegramBot telegramBot, String jdbcUrl, Path indexPath, int shardCount) throws Exception {
+        this.telegramBot = telegramBot;
         logger = LoggerFactory.getLogger(getClass());
-        mediaGroupIdToTagsMap = new HashMap<>();
-        userIdToMessageTextMap = new HashMap<>();
+        metrics = new Metrics();
+        searchTimer = metrics.timer("search_index_seconds", "Lucene search latency", "operation", "search");
+        requestTimerMap = new ConcurrentHashMap<>();
+        mediaGroupIdToTagsMap = new ExpiringCache<>(STATE_CACHE_SIZE, MEDIA_GROUP_TTL_SECONDS, TimeUnit.SECONDS, true);
+        userIdToMessageTextMap = new ExpiringCache<>(STATE_CACHE_SIZE, MESSAGE_TEXT_TTL_SECONDS, TimeUnit.SECONDS);
+        stateCaches = new ArrayList<>(List.of(mediaGroupIdToTagsMap, userIdToMessageTextMap));
+        scheduler = Executors.newSingleThreadScheduledExecutor();
         commandMap = new HashMap<>();
-        connection = DriverManager.getConnection(JDBC_URL);
+        dispatcher = new UpdateDispatcher(this, UPDATE_THREADS, UPDATE_QUEUE_CAPACITY);
+        requestScheduler = new RequestScheduler(this, GLOBAL_REQUESTS_PER_SECOND, CHAT_REQUESTS_PER_SECOND, CHAT_REQUEST_BURST);
+        shardRouter = new ShardRouter(jdbcUrl, JDBC_USER, JDBC_PASSWORD, indexPath, shardCount, DATABASE_POOL_SIZE, metrics);
+        for (Shard shard : shardRouter.shards) {
+            if (!shard.searchIndex.clean) {
+                rebuildSearchIndex(shard);
+            }
+        }
+        inlineQueryCache = new InlineQueryCache(INLINE_CACHE_SIZE, INLINE_CACHE_TTL_SECONDS, TimeUnit.SECONDS);
+        fileWriter = new FileWriter(this, WRITE_THREADS, WRITE_BATCH_SIZE, WRITE_BATCH_DELAY_MILLIS);
+        maintenance = new Maintenance(this, MAINTENANCE_DUTY_CYCLE);
+        transferExecutor = new ThreadPoolExecutor(TRANSFER_THREADS, TRANSFER_THREADS, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(TRANSFER_QUEUE_CAPACITY));
+        transferUserIds = ConcurrentHashMap.newKeySet();
         messages = ResourceBundle.getBundle("messages");
         me = executeBotRequest(new GetMe()).user();
 
         HelpCommand helpCommand = new HelpCommand(this);
+        TopCommand topCommand = new TopCommand(this);
+        importCommand = new ImportCommand(this);
+        tagmeCommand = new TagmeCommand(this);
+        stateCaches.add(importCommand.pendingUserIds);
+        stateCaches.add(tagmeCommand.sessions);
         commandMap.put("start", helpCommand);
         commandMap.put("help", helpCommand);
-        commandMap.put("top", new TopCommand(this));
+        commandMap.put("top", topCommand);
         commandMap.put("about", new AboutCommand(this));
-        commandMap.put("tagme", new TagmeCommand(this));
+        commandMap.put("tagme", tagmeCommand);
+        commandMap.put("export", new ExportCommand(this));
+        commandMap.put("import", importCommand);
+
+        metrics.gauge("queue_size", "Number of queued items", "queue", "updates", dispatcher::size);
+        metrics.gauge("queue_size", "Number of queued items", "queue", "requests", requestScheduler::size);
+        metrics.gauge("queue_size", "Number of queued items", "queue", "writes", fileWriter::size);
+        metrics.gauge("queue_size", "Number of queued items", "queue", "transfers", () -> transferExecutor.getQueue().size());
+        registerCacheMetrics("inline_pages", inlineQueryCache.pageCache);
+        registerCacheMetrics("media_groups", mediaGroupIdToTagsMap);
+        registerCacheMetrics("message_texts", userIdToMessageTextMap);
+        registerCacheMetrics("import_sessions", importCommand.pendingUserIds);
+        registerCacheMetrics("tagme_sessions", tagmeCommand.sessions);
+        registerCacheMetrics("chat_buckets", requestScheduler.chatBucketCache);
+    }
+
+    public void registerCacheMetrics(String name, ExpiringCache<?, ?> cache) {
+        metrics.gauge("cache_size", "Number of cached entries", "cache", name, cache::size);
+        metrics.gauge("cache_hits", "Number of cache hits", "cache", name, cache.hits::sum);
+        metrics.gauge("cache_misses", "Number of cache misses", "cache", name, cache.misses::sum);
+        metrics.gauge("cache_evictions", "Number of entries evicted by size", "cache", name, cache.evictions::sum);
+        metrics.gauge("cache_expirations", "Number of expired entries", "cache", name, cache.expirations::sum);
+    }
+
+    public void startMetrics(int port) throws IOException {
+        metricsServer = new MetricsServer(metrics, port);
+        metricsServer.start();
+        logger.info(String.format("Metrics available on port %d", port));
+    }
+
+    public void startMaintenance(int periodHours) {
+        maintenance.start(periodHours, TimeUnit.HOURS);
+        logger.info(String.format("Maintenance scheduled every %d hours", periodHours));
     }
 
     public void start() {
-        setUpdatesListener(updates -> {
+        startWorkers();
+        telegramBot.setUpdatesListener(updates -> {
+            int confirmed = UpdatesListener.CONFIRMED_UPDATES_NONE;
             for (Update update : updates) {
-                logger.debug(update.toString());
                 try {
-                    processUpdate(update);
-                } catch (Exception e) {
-                    logger.error("Failed to process update", e);
+                    dispatcher.dispatch(update);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return confirmed;
                 }
+                confirmed = update.updateId();
             }
             return UpdatesListener.CONFIRMED_UPDATES_ALL;
         });
         logger.info(String.format("bstorage v%s started", VERSION));
     }
 
+    public void startWebhook(int port, String url, String secretToken) throws IOException {
+        InetSocketAddress address = url == null ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port) : new InetSocketAddress(port);
+        webhookServer = new WebhookServer(this, address, secretToken, WEBHOOK_THREADS);
+        startWorkers();
+        webhookServer.start();
+        if (url != null) {
+            BaseResponse response = executeBotRequest(new SetWebhook().url(url).secretToken(secretToken));
+            if (!response.isOk()) {
+                throw new IOException("Failed to set webhook: " + response.description());
+            }
+        }
+        logger.info(String.format("bstorage v%s started with webhook on port %d", VERSION, port));
+    }
+
+    public void startWorkers() {
+        requestScheduler.start();
+        dispatcher.start();
+        scheduler.scheduleWithFixedDelay(this::cleanUpStateCaches, STATE_CLEANUP_PERIOD_SECONDS, STATE_CLEANUP_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void cleanUpStateCaches() {
+        for (ExpiringCache<?, ?> cache : stateCaches) {
+            cache.cleanUp();
+            if (logger.isDebugEnabled()) {
+                logger.debug(String.format("State cache: size=%d, hits=%d, misses=%d, evictions=%d, expirations=%d",
+                        cache.size(), cache.hits.sum(), cache.misses.sum(), cache.evictions.sum(), cache.expirations.sum()));
+            }
+        }
+    }
+
     public void processUpdate(Update update) throws Exception {
         CallbackQuery callbackQuery = update.callbackQuery();
         if (callbackQuery != null) {
-            for (Command command : commandMap.values()) {
-                command.processCallbackQuery(callbackQuery);
+            String data = callbackQuery.data();
+            int separator = data == null ? -1 : data.indexOf(':');
+            Command command = separator < 0 ? null : commandMap.get(data.substring(0, separator));
+            if (command == null) {
+                executeAsyncBotRequest(new AnswerCallbackQuery(callbackQuery.id()));
+            } else {
+                command.processCallbackQuery(callbackQuery, data.substring(separator + 1));
             }
             return;
         }
@@ -105,7 +277,14 @@ public final class BStorageBot extends TelegramBot {
                 if (command == null) {
                     sendMessage(user, messages.getString("command.unknown"));
                 } else {
-                    command.execute(user);
+                    long start = System.nanoTime();
+                    try {
+                        command.execute(user);
+                    } catch (Exception e) {
+                        command.timer.recordError(start);
+                        throw e;
+                    }
+                    command.timer.recordSince(start);
                 }
                 return;
             } else {
@@ -148,6 +327,9 @@ public final class BStorageBot extends TelegramBot {
         }
         Document document = message.document();
         if (document != null) {
+            if (importCommand.processDocument(user, document)) {
+                return;
+            }
             processFile(message, user, document.fileUniqueId(), document.fileId(), document.fileName(), File.Type.DOCUMENT);
             return;
         }
@@ -157,90 +339,277 @@ public final class BStorageBot extends TelegramBot {
     }
 
     public void processInlineQuery(InlineQuery inlineQuery) {
-        List<InlineQueryResult<?>> resultsList = new ArrayList<>();
-        List<File> files = findFilesByTags(inlineQuery.from(), inlineQuery.query().trim().toLowerCase());
-        for (File file : files) {
-            String id = UUID.randomUUID().toString();
-            String fileId = file.id();
-            String title = file.fileName() == null ? " " : file.fileName();
-            switch (file.type()) {
-                case PHOTO -> resultsList.add(new InlineQueryResultCachedPhoto(id, fileId));
-                case VIDEO -> resultsList.add(new InlineQueryResultCachedVideo(id, fileId, title));
-                case DOCUMENT -> resultsList.add(new InlineQueryResultCachedDocument(id, fileId, title));
-                case AUDIO -> resultsList.add(new InlineQueryResultCachedAudio(id, fileId));
-                case GIF -> resultsList.add(new InlineQueryResultCachedGif(id, fileId));
-                case STICKER -> resultsList.add(new InlineQueryResultCachedSticker(id, fileId));
-                case VOICE -> resultsList.add(new InlineQueryResultCachedVoice(id, fileId, title));
+        User user = inlineQuery.from();
+        String query = inlineQuery.query();
+        String offset = inlineQuery.offset();
+        long time = System.nanoTime();
+        FilePage page = inlineQueryCache.get(user.id(), query, offset);
+        if (page == null) {
+            page = findFilesByTags(user, query.trim().toLowerCase(), offset);
+            if (page.cacheable()) {
+                inlineQueryCache.put(user.id(), query, offset, page, time);
             }
         }
-        InlineQueryResult<?>[] resultsArray = resultsList.toArray(new InlineQueryResult<?>[0]);
-        executeAsyncBotRequest(new AnswerInlineQuery(inlineQuery.id(), resultsArray).isPersonal(true).cacheTime(0));
+        InlineQueryResult<?>[] resultsArray = page.results().toArray(new InlineQueryResult<?>[0]);
+        boolean invalidated = inlineQueryCache.isInvalidatedSince(user.id(), time - TimeUnit.SECONDS.toNanos(INLINE_CACHE_TIME_SECONDS));
+        int cacheTime = invalidated || !page.cacheable() ? 0 : INLINE_CACHE_TIME_SECONDS;
+        executeAsyncBotRequest(new AnswerInlineQuery(inlineQuery.id(), resultsArray).isPersonal(true).cacheTime(cacheTime).nextOffset(page.nextOffset()));
     }
 
-    public List<File> findFilesByTags(User user, String tags) {
-        List<File> files = new ArrayList<>();
-        try {
-            PreparedStatement statement;
+    public FilePage findFilesByTags(User user, String tags, String offset) {
+        List<InlineQueryResult<?>> results = new ArrayList<>();
+        String nextOffset = "";
+        boolean cacheable = true;
+        int limit = offset == null || offset.isEmpty() ? INLINE_FIRST_PAGE_SIZE : INLINE_PAGE_SIZE;
+        Shard shard = shardRouter.getShard(user.id());
+        try (DatabaseConnection connection = shard.database.getConnection()) {
             if (tags == null || tags.isBlank()) {
-                statement = connection.prepareStatement("""
-                        SELECT
-                            *
-                        FROM
-                            FILES
-                        WHERE
-                            USER_ID = ?
-                        ORDER BY
-                            DATETIME DESC
-                        FETCH FIRST 50 ROWS ONLY
-                        """);
-                statement.setLong(1, user.id());
+                PreparedStatement statement;
+                String[] cursor = offset == null ? new String[0] : offset.split(":", 2);
+                if (cursor.length == 2) {
+                    statement = connection.prepareStatement(Query.FIND_RECENT_FILES_BEFORE);
+                    statement.setLong(1, user.id());
+                    statement.setTimestamp(2, fromMicros(Long.parseLong(cursor[0])));
+                    statement.setLong(3, Long.parseLong(cursor[1]));
+                    statement.setInt(4, limit);
+                } else {
+                    statement = connection.prepareStatement(Query.FIND_RECENT_FILES);
+                    statement.setLong(1, user.id());
+                    statement.setInt(2, limit);
+                }
+                statement.setFetchSize(limit);
+                try (ResultSet resultSet = executeStatement(statement)) {
+                    while (resultSet.next()) {
+                        results.add(INLINE_QUERY_RESULT_MAPPER.map(resultSet));
+                        if (results.size() == limit) {
+                            nextOffset = toMicros(resultSet.getTimestamp(5)) + ":" + resultSet.getLong(1);
+                        }
+                    }
+                }
             } else if (tags.equals("*")) {
-                statement = connection.prepareStatement("""
-                        SELECT
-                            *
-                        FROM
-                            FILES
-                        WHERE
-                            USER_ID = ?
-                        ORDER BY
-                            RAND()
-                        FETCH FIRST 50 ROWS ONLY
-                        """);
-                statement.setLong(1, user.id());
-            } else {
-                statement = connection.prepareStatement("""
-                        SELECT
-                            F.*
-                        FROM
-                            FTL_SEARCH_DATA(?, 0, 0) FTL,
-                            FILES F
-                        WHERE
-                            FTL."TABLE" = 'FILES'
-                            AND F.ID = FTL.KEYS[1]
-                            AND F.USER_ID = ?
-                        ORDER BY
-                            FTL.SCORE DESC
-                        FETCH FIRST 50 ROWS ONLY
-                        """);
-                statement.setString(1, tags);
+                String[] cursor = offset == null ? new String[0] : offset.split(":", 2);
+                long seed = cursor.length == 2 ? Long.parseLong(cursor[0]) : new Random().nextLong();
+                cacheable = cursor.length == 2;
+                int start = cursor.length == 2 ? Integer.parseInt(cursor[1]) : 0;
+                int[] seqs = samplePermutation(seed, findLastFileSeq(connection, user.id()) + 1, start, limit);
+                if (seqs.length == 0) {
+                    return new FilePage(results, nextOffset, cacheable);
+                }
+                PreparedStatement statement = connection.prepareStatement(Query.FIND_FILES_BY_SEQS);
+                statement.setObject(1, Arrays.stream(seqs).boxed().toArray(Integer[]::new));
                 statement.setLong(2, user.id());
-            }
-            ResultSet resultSet = executeStatement(statement);
-            while (resultSet.next()) {
-                String id = resultSet.getString(4);
-                String fileName = resultSet.getString(8);
-                File.Type type = File.Type.valueOf(resultSet.getString(5));
-                files.add(new File(id, fileName, type));
+                statement.setFetchSize(limit);
+                Map<Integer, InlineQueryResult<?>> seqToResultMap = new HashMap<>();
+                try (ResultSet resultSet = executeStatement(statement)) {
+                    while (resultSet.next()) {
+                        seqToResultMap.put(resultSet.getInt(5), INLINE_QUERY_RESULT_MAPPER.map(resultSet));
+                    }
+                }
+                for (int seq : seqs) {
+                    InlineQueryResult<?> result = seqToResultMap.get(seq);
+                    if (result != null) {
+                        results.add(result);
+                    }
+                }
+                if (seqs.length == limit) {
+                    nextOffset = seed + ":" + (start + limit);
+                }
+            } else {
+                int start = offset == null || offset.isEmpty() ? 0 : Integer.parseInt(offset);
+                List<Long> ids;
+                TagFilter filter = TagFilter.parse(tags);
+                if (filter != null) {
+                    ids = findFileIdsByTagFilter(connection, user.id(), filter, start, limit);
+                } else {
+                    long searchStart = System.nanoTime();
+                    ids = shard.searchIndex.search(user.id(), tags, start, limit);
+                    searchTimer.recordSince(searchStart);
+                }
+                results.addAll(findFilesByIds(connection, user.id(), ids));
+                if (ids.size() == limit) {
+                    nextOffset = Integer.toString(start + limit);
+                }
             }
         } catch (Exception e) {
             logger.error("Failed to find files", e);
+            cacheable = false;
+        }
+        return new FilePage(results, nextOffset, cacheable);
+    }
+
+    public List<InlineQueryResult<?>> findFilesByIds(DatabaseConnection connection, long userId, List<Long> ids) throws SQLException {
+        List<InlineQueryResult<?>> results = new ArrayList<>(ids.size());
+        if (ids.isEmpty()) {
+            return results;
         }
-        return files;
+        PreparedStatement statement = connection.prepareStatement(Query.FIND_FILES_BY_IDS);
+        statement.setObject(1, ids.toArray(new Long[0]));
+        statement.setLong(2, userId);
+        statement.setFetchSize(ids.size());
+        Map<Long, InlineQueryResult<?>> rowIdToResultMap = new HashMap<>();
+        try (ResultSet resultSet = executeStatement(statement)) {
+            while (resultSet.next()) {
+                rowIdToResultMap.put(resultSet.getLong(1), INLINE_QUERY_RESULT_MAPPER.map(resultSet));
+            }
+        }
+        for (long id : ids) {
+            InlineQueryResult<?> result = rowIdToResultMap.get(id);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    public List<Long> findFileIdsByTagFilter(DatabaseConnection connection, long userId, TagFilter filter, int start, int limit) throws SQLException {
+        List<Set<String>> groups = new ArrayList<>(filter.groups());
+        if (filter.prefix() != null) {
+            Set<String> completions = new LinkedHashSet<>(findTagsByPrefix(connection, userId, filter.prefix(), TAG_COMPLETIONS_LIMIT));
+            completions.add(filter.prefix());
+            groups.add(completions);
+        }
+        Set<String> tagSet = new HashSet<>();
+        for (Set<String> group : groups) {
+            tagSet.addAll(group);
+        }
+        Map<String, Integer> tagToCountMap = new HashMap<>();
+        PreparedStatement countStatement = connection.prepareStatement(Query.FIND_USER_TAG_COUNTS);
+        countStatement.setObject(1, tagSet.toArray(new String[0]));
+        countStatement.setLong(2, userId);
+        try (ResultSet resultSet = executeStatement(countStatement)) {
+            while (resultSet.next()) {
+                tagToCountMap.put(resultSet.getString(1), resultSet.getInt(2));
+            }
+        }
+        int drivingIndex = -1;
+        long drivingCount = Long.MAX_VALUE;
+        for (int i = 0; i < groups.size(); i++) {
+            long count = 0;
+            for (String tag : groups.get(i)) {
+                count += tagToCountMap.getOrDefault(tag, 0);
+            }
+            if (count == 0) {
+                return List.of();
+            }
+            if (count < drivingCount) {
+                drivingIndex = i;
+                drivingCount = count;
+            }
+        }
+        List<String> tagList = new ArrayList<>();
+        List<Integer> groupIndexList = new ArrayList<>();
+        for (int i = 0; i < groups.size(); i++) {
+            if (i != drivingIndex) {
+                for (String tag : groups.get(i)) {
+                    tagList.add(tag);
+                    groupIndexList.add(i);
+                }
+            }
+        }
+        String[] excludedTags = filter.excludedTags().toArray(new String[0]);
+        Map<Long, Long> rowIdToMicrosMap = new HashMap<>();
+        boolean filtered = groups.size() > 1 || excludedTags.length > 0;
+        PreparedStatement statement = connection.prepareStatement(filtered ? Query.FIND_FILTERED_FILE_TAGS_BY_TAG : Query.FIND_FILE_TAGS_BY_TAG);
+        for (String tag : groups.get(drivingIndex)) {
+            if (!tagToCountMap.containsKey(tag)) {
+                continue;
+            }
+            statement.setLong(1, userId);
+            statement.setString(2, tag);
+            if (filtered) {
+                statement.setInt(3, groups.size() - 1);
+                statement.setObject(4, tagList.toArray(new String[0]));
+                statement.setObject(5, groupIndexList.toArray(new Integer[0]));
+                statement.setInt(6, groups.size() - 1);
+                statement.setObject(7, excludedTags);
+                statement.setObject(8, excludedTags);
+                statement.setInt(9, start + limit);
+            } else {
+                statement.setInt(3, start + limit);
+            }
+            try (ResultSet resultSet = executeStatement(statement)) {
+                while (resultSet.next()) {
+                    rowIdToMicrosMap.put(resultSet.getLong(1), toMicros(resultSet.getTimestamp(2)));
+                }
+            }
+        }
+        return rowIdToMicrosMap.keySet().stream()
+                .sorted(Comparator.comparing((Long id) -> rowIdToMicrosMap.get(id)).thenComparing(Comparator.naturalOrder()).reversed())
+                .skip(start)
+                .limit(limit)
+                .toList();
+    }
+
+    public List<String> findTagsByPrefix(DatabaseConnection connection, long userId, String prefix, int limit) throws SQLException {
+        List<String> tags = new ArrayList<>();
+        PreparedStatement statement = connection.prepareStatement(Query.FIND_USER_TAGS_BY_PREFIX);
+        statement.setLong(1, userId);
+        statement.setString(2, prefix);
+        statement.setString(3, prefix + Character.MAX_VALUE);
+        statement.setInt(4, limit);
+        try (ResultSet resultSet = executeStatement(statement)) {
+            while (resultSet.next()) {
+                tags.add(resultSet.getString(1));
+            }
+        }
+        return tags;
+    }
+
+    public int findLastFileSeq(DatabaseConnection connection, long userId) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(Query.FIND_LAST_FILE_SEQ);
+        statement.setLong(1, userId);
+        try (ResultSet resultSet = executeStatement(statement)) {
+            return resultSet.next() ? resultSet.getInt(1) : -1;
+        }
+    }
+
+    public static int[] samplePermutation(long seed, int count, int start, int limit) {
+        int end = Math.min(start + limit, count);
+        if (start >= end) {
+            return new int[0];
+        }
+        Random random = new Random(seed);
+        Map<Integer, Integer> swaps = new HashMap<>();
+        int[] result = new int[end - start];
+        for (int i = 0; i < end; i++) {
+            int j = i + random.nextInt(count - i);
+            int value = swaps.getOrDefault(j, j);
+            swaps.put(j, swaps.getOrDefault(i, i));
+            if (i >= start) {
+                result[i - start] = value;
+            }
+        }
+        return result;
+    }
+
+    public static long toMicros(Timestamp timestamp) {
+        return Math.floorDiv(timestamp.getTime(), 1000) * 1_000_000 + timestamp.getNanos() / 1000;
+    }
+
+    public static Timestamp fromMicros(long micros) {
+        Timestamp timestamp = new Timestamp(Math.floorDiv(micros, 1_000_000) * 1000);
+        timestamp.setNanos((int) Math.floorMod(micros, 1_000_000) * 1000);
+        return timestamp;
+    }
+
+    public void rebuildSearchIndex(Shard shard) throws Exception {
+        logger.info(String.format("Rebuilding search index of shard %d...", shard.index));
+        SearchIndex searchIndex = shard.searchIndex;
+        searchIndex.clear();
+        try (DatabaseConnection connection = shard.database.getConnection()) {
+            PreparedStatement statement = connection.prepareStatement(Query.FIND_TAGGED_FILES);
+            try (ResultSet resultSet = executeStatement(statement)) {
+                while (resultSet.next()) {
+                    searchIndex.add(resultSet.getLong(1), resultSet.getLong(2), resultSet.getString(3));
+                }
+            }
+        }
+        searchIndex.commit(false);
+        searchIndex.refresh();
     }
 
     public void processFile(Message message, User user, String fileUniqueId, String fileId, String fileName, File.Type fileType) throws Exception {
         Long userId = user.id();
-        String rowId = userId + fileUniqueId;
         String mediaGroupId = message.mediaGroupId();
         String tags = userIdToMessageTextMap.remove(userId);
         if (tags == null) {
@@ -257,53 +626,56 @@ public final class BStorageBot extends TelegramBot {
             tags = tags.trim().replaceAll(REGEX_WHITESPACES, " ").toLowerCase();
         }
 
-        if (tags == null || tags.isBlank()) {
-            PreparedStatement countStatement = connection.prepareStatement("""
-                    SELECT
-                        COUNT(*)
-                    FROM
-                        FILES
-                    WHERE
-                        ID = ?
-                    """);
-            countStatement.setString(1, rowId);
-            ResultSet resultSet = executeStatement(countStatement);
-            resultSet.next();
-            if (resultSet.getInt(1) > 0) {
-                PreparedStatement deleteStatement = connection.prepareStatement("""
-                        DELETE FROM
-                            FILES
-                        WHERE
-                            ID = ?
-                        """);
-                deleteStatement.setString(1, rowId);
-                executeStatement(deleteStatement);
-                replyToMessage(user, messages.getString("file.deleted"), message.messageId());
-                return;
+        fileWriter.write(new FileWriter.Write(user, message, fileUniqueId, fileId, fileName, fileType, tags, Timestamp.valueOf(LocalDateTime.now())));
+        if (tags != null && !tags.isEmpty()) {
+            tagmeCommand.processFile(user, fileUniqueId);
+        }
+    }
+
+    public static Set<String> splitTags(String tags) {
+        Set<String> tagSet = new HashSet<>();
+        if (tags != null) {
+            for (String tag : tags.split(REGEX_WHITESPACES)) {
+                if (!tag.isBlank()) {
+                    tagSet.add(tag);
+                }
             }
         }
+        return tagSet;
+    }
 
-        PreparedStatement mergeStatement = connection.prepareStatement("MERGE INTO FILES VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
-        mergeStatement.setString(1, rowId);
-        mergeStatement.setLong(2, userId);
-        mergeStatement.setString(3, fileUniqueId);
-        mergeStatement.setString(4, fileId);
-        mergeStatement.setString(5, fileType.toString());
-        mergeStatement.setString(6, tags);
-        mergeStatement.setTimestamp(7, Timestamp.valueOf(LocalDateTime.now()));
-        mergeStatement.setString(8, fileName);
-        executeStatement(mergeStatement);
-        if (tags == null) {
-            replyToMessage(user, messages.getString("file.saved"), message.messageId());
-        } else {
-            replyToMessage(user, String.format(messages.getString("file.saved.tags"), tags.replaceAll(REGEX_EVERY_WORD, "#$1")), message.messageId());
+    public ResultSet executeStatement(PreparedStatement statement) throws SQLException {
+        if (logger.isDebugEnabled()) {
+            logger.debug(statement.toString());
         }
+        return shardRouter.getDatabase(statement).executeStatement(statement);
     }
 
-    public ResultSet executeStatement(PreparedStatement statement) throws Exception {
-        logger.debug(statement.toString());
-        statement.execute();
-        return statement.getResultSet();
+    public int[] executeBatch(PreparedStatement statement) throws SQLException {
+        if (logger.isDebugEnabled()) {
+            logger.debug(statement.toString());
+        }
+        return shardRouter.getDatabase(statement).executeBatch(statement);
+    }
+
+    public void executeTransfer(User user, Runnable transfer) {
+        long userId = user.id();
+        if (!transferUserIds.add(userId)) {
+            sendMessage(user, messages.getString("transfer.running"));
+            return;
+        }
+        try {
+            transferExecutor.execute(() -> {
+                try {
+                    transfer.run();
+                } finally {
+                    transferUserIds.remove(userId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            transferUserIds.remove(userId);
+            sendMessage(user, messages.getString("transfer.busy"));
+        }
     }
 
     public void sendMessage(User user, String text) {
@@ -315,32 +687,55 @@ public final class BStorageBot extends TelegramBot {
     }
 
     public <T extends BaseRequest<T, R>, R extends BaseResponse> R executeBotRequest(BaseRequest<T, R> request) {
-        logger.debug(request.toString());
-        R response = execute(request);
-        logger.debug(response.toString());
+        if (logger.isDebugEnabled()) {
+            logger.debug(request.toString());
+        }
+        Timer timer = getRequestTimer(request);
+        long start = System.nanoTime();
+        R response = telegramBot.execute(request);
+        if (response.isOk()) {
+            timer.recordSince(start);
+        } else {
+            timer.recordError(start);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug(response.toString());
+        }
         return response;
     }
 
-    public <T extends BaseRequest<T, R>, R extends BaseResponse> void executeAsyncBotRequest(T request) {
-        logger.debug(request.toString());
-        execute(request, new Callback<T, R>() {
-            @Override
-            public void onResponse(T request, R response) {
-                logger.debug(response.toString());
-            }
+    public Timer getRequestTimer(BaseRequest<?, ?> request) {
+        Timer timer = requestTimerMap.get(request.getClass());
+        if (timer == null) {
+            timer = metrics.timer("telegram_request_seconds", "Telegram Bot API request latency", "method", request.getMethod());
+            requestTimerMap.put(request.getClass(), timer);
+        }
+        return timer;
+    }
 
-            @Override
-            public void onFailure(T request, IOException e) {
-                logger.error("Failed to execute request", e);
-            }
-        });
+    public <T extends BaseRequest<T, R>, R extends BaseResponse> void executeAsyncBotRequest(T request) {
+        requestScheduler.submit(request);
     }
 
     public void stop() throws Exception {
         logger.info("Shutting down...");
-        connection.close();
-        removeGetUpdatesListener();
-        shutdown();
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        if (webhookServer == null) {
+            telegramBot.removeGetUpdatesListener();
+        } else {
+            webhookServer.stop();
+        }
+        dispatcher.stop();
+        scheduler.shutdown();
+        maintenance.close();
+        transferExecutor.shutdown();
+        transferExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        fileWriter.close();
+        requestScheduler.stop();
+        shardRouter.close();
+        telegramBot.shutdown();
     }
 
     public static String getenv(String name) {
@@ -348,8 +743,28 @@ public final class BStorageBot extends TelegramBot {
     }
 
     public static void main(String[] args) throws Exception {
-        BStorageBot bStorageBot = new BStorageBot(getenv("BSTORAGE_BOT_TOKEN"));
-        bStorageBot.start();
+        TelegramBot.Builder builder = new TelegramBot.Builder(getenv("BSTORAGE_BOT_TOKEN"));
+        String apiUrl = System.getenv("BSTORAGE_API_URL");
+        if (apiUrl != null) {
+            builder.apiUrl(apiUrl);
+        }
+        String shards = System.getenv("BSTORAGE_SHARDS");
+        BStorageBot bStorageBot = new BStorageBot(builder.build(), JDBC_URL, Path.of(INDEX_PATH), shards == null ? 1 : Integer.parseInt(shards));
+        String metricsPort = System.getenv("BSTORAGE_METRICS_PORT");
+        if (metricsPort != null) {
+            bStorageBot.startMetrics(Integer.parseInt(metricsPort));
+        }
+        String maintenanceHours = System.getenv("BSTORAGE_MAINTENANCE_HOURS");
+        int maintenancePeriodHours = maintenanceHours == null ? MAINTENANCE_PERIOD_HOURS : Integer.parseInt(maintenanceHours);
+        if (maintenancePeriodHours > 0) {
+            bStorageBot.startMaintenance(maintenancePeriodHours);
+        }
+        String webhookPort = System.getenv("BSTORAGE_WEBHOOK_PORT");
+        if (webhookPort == null) {
+            bStorageBot.start();
+        } else {
+            bStorageBot.startWebhook(Integer.parseInt(webhookPort), System.getenv("BSTORAGE_WEBHOOK_URL"), System.getenv("BSTORAGE_WEBHOOK_SECRET"));
+        }
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try {
                 bStorageBot.stop();
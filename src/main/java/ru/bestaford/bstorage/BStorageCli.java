@@ -0,0 +1,64 @@
+package ru.bestaford.bstorage;
+
+import ru.bestaford.bstorage.database.Shard;
+import ru.bestaford.bstorage.database.ShardRouter;
+import ru.bestaford.bstorage.metrics.Metrics;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public final class BStorageCli {
+
+    public static final String USAGE = """
+            Usage: BStorageCli <command>
+              export <user id> <file>    export a user's files
+              import <user id> <file>    import files into a user's library
+              move <user id> <shard>     move a user to another shard
+              rebalance                  move every user to the shard it is routed to""";
+
+    public static void main(String[] args) throws Exception {
+        String command = args.length == 0 ? "" : args[0];
+        int argumentCount = switch (command) {
+            case "export", "import", "move" -> 3;
+            case "rebalance" -> 1;
+            default -> -1;
+        };
+        if (args.length != argumentCount) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        String shards = System.getenv("BSTORAGE_SHARDS");
+        int shardCount = shards == null ? 1 : Integer.parseInt(shards);
+        try (ShardRouter shardRouter = new ShardRouter(BStorageBot.JDBC_URL, BStorageBot.JDBC_USER, BStorageBot.JDBC_PASSWORD,
+                Path.of(BStorageBot.INDEX_PATH), shardCount, 1, new Metrics(), command.equals("rebalance"))) {
+            for (Shard shard : shardRouter.shards) {
+                if (!shard.searchIndex.clean) {
+                    System.err.printf("Search index of shard %d is not clean, start the bot once to rebuild it%n", shard.index);
+                    System.exit(1);
+                }
+            }
+            switch (command) {
+                case "export" -> {
+                    long userId = Long.parseLong(args[1]);
+                    try (OutputStream outputStream = Files.newOutputStream(Path.of(args[2]))) {
+                        System.out.printf("%d files exported%n", shardRouter.getShard(userId).libraryTransfer.exportFiles(userId, outputStream));
+                    }
+                }
+                case "import" -> {
+                    long userId = Long.parseLong(args[1]);
+                    try (InputStream inputStream = Files.newInputStream(Path.of(args[2]))) {
+                        System.out.printf("%d files imported%n", shardRouter.getShard(userId).libraryTransfer.importFiles(userId, inputStream));
+                    }
+                }
+                case "move" -> {
+                    long userId = Long.parseLong(args[1]);
+                    Shard target = shardRouter.shards.get(Integer.parseInt(args[2]));
+                    System.out.printf("%d files moved%n", shardRouter.moveUser(userId, shardRouter.getShard(userId), target));
+                }
+                case "rebalance" -> System.out.printf("%d users moved%n", shardRouter.rebalance());
+            }
+        }
+    }
+}
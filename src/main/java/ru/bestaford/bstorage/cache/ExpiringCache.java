@@ -0,0 +1,115 @@
+package ru.bestaford.bstorage.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ExpiringCache<K, V> {
+
+    public final int maxSize;
+    public final long ttlNanos;
+    public final boolean expireAfterAccess;
+    public final LongAdder hits;
+    public final LongAdder misses;
+    public final LongAdder evictions;
+    public final LongAdder expirations;
+
+    private final LinkedHashMap<K, Entry<V>> map;
+
+    public ExpiringCache(int maxSize, long ttl, TimeUnit unit) {
+        this(maxSize, ttl, unit, false);
+    }
+
+    public ExpiringCache(int maxSize, long ttl, TimeUnit unit, boolean expireAfterAccess) {
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.expireAfterAccess = expireAfterAccess;
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+        expirations = new LongAdder();
+        map = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > ExpiringCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized V get(K key) {
+        Entry<V> entry = map.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        long now = System.nanoTime();
+        if (entry.expireAt - now <= 0) {
+            map.remove(key);
+            expirations.increment();
+            misses.increment();
+            return null;
+        }
+        if (expireAfterAccess) {
+            entry.expireAt = now + ttlNanos;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        long now = System.nanoTime();
+        map.put(key, new Entry<>(value, now + ttlNanos));
+        evictExpired(now);
+    }
+
+    public synchronized V remove(K key) {
+        Entry<V> entry = map.remove(key);
+        if (entry == null || entry.expireAt - System.nanoTime() <= 0) {
+            return null;
+        }
+        return entry.value;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized void cleanUp() {
+        long now = System.nanoTime();
+        Iterator<Entry<V>> iterator = map.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expireAt - now <= 0) {
+                iterator.remove();
+                expirations.increment();
+            }
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Entry<V>> iterator = map.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expireAt - now > 0) {
+                return;
+            }
+            iterator.remove();
+            expirations.increment();
+        }
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private long expireAt;
+
+        private Entry(V value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
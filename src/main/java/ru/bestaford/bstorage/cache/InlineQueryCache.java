@@ -0,0 +1,47 @@
+package ru.bestaford.bstorage.cache;
+
+import ru.bestaford.bstorage.model.FilePage;
+
+import java.util.concurrent.TimeUnit;
+
+public final class InlineQueryCache {
+
+    public final ExpiringCache<Key, CachedPage> pageCache;
+    public final ExpiringCache<Long, Long> invalidationCache;
+
+    public InlineQueryCache(int maxSize, long ttl, TimeUnit unit) {
+        pageCache = new ExpiringCache<>(maxSize, ttl, unit);
+        invalidationCache = new ExpiringCache<>(maxSize, ttl, unit);
+    }
+
+    public FilePage get(long userId, String query, String offset) {
+        CachedPage cachedPage = pageCache.get(new Key(userId, query, offset));
+        if (cachedPage == null) {
+            return null;
+        }
+        Long invalidatedAt = invalidationCache.get(userId);
+        if (invalidatedAt != null && cachedPage.createdAt - invalidatedAt <= 0) {
+            return null;
+        }
+        return cachedPage.page;
+    }
+
+    public void put(long userId, String query, String offset, FilePage page, long createdAt) {
+        pageCache.put(new Key(userId, query, offset), new CachedPage(page, createdAt));
+    }
+
+    public void invalidate(long userId) {
+        invalidationCache.put(userId, System.nanoTime());
+    }
+
+    public boolean isInvalidatedSince(long userId, long time) {
+        Long invalidatedAt = invalidationCache.get(userId);
+        return invalidatedAt != null && invalidatedAt - time > 0;
+    }
+
+    public record Key(long userId, String query, String offset) {
+    }
+
+    public record CachedPage(FilePage page, long createdAt) {
+    }
+}
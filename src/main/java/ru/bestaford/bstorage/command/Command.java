@@ -2,21 +2,25 @@ package ru.bestaford.bstorage.command;
 
 import com.pengrad.telegrambot.model.CallbackQuery;
 import com.pengrad.telegrambot.model.User;
+import com.pengrad.telegrambot.request.AnswerCallbackQuery;
 import ru.bestaford.bstorage.BStorageBot;
+import ru.bestaford.bstorage.metrics.Timer;
 
 public abstract class Command {
 
     public final BStorageBot bot;
     public final String description;
+    public final Timer timer;
 
     public Command(BStorageBot bot, String description) {
         this.bot = bot;
         this.description = description;
+        timer = bot.metrics.timer("command_seconds", "Command execution latency", "command", getClass().getSimpleName());
     }
 
     public abstract void execute(User user) throws Exception;
 
-    public void processCallbackQuery(CallbackQuery callbackQuery) throws Exception {
-
+    public void processCallbackQuery(CallbackQuery callbackQuery, String data) throws Exception {
+        bot.executeAsyncBotRequest(new AnswerCallbackQuery(callbackQuery.id()));
     }
 }
@@ -0,0 +1,54 @@
+package ru.bestaford.bstorage.command;
+
+import com.pengrad.telegrambot.model.User;
+import com.pengrad.telegrambot.request.SendDocument;
+import com.pengrad.telegrambot.response.SendResponse;
+import ru.bestaford.bstorage.BStorageBot;
+import ru.bestaford.bstorage.database.LibraryTransfer;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public final class ExportCommand extends Command {
+
+    public ExportCommand(BStorageBot bot) {
+        super(bot, "Export your files");
+    }
+
+    @Override
+    public void execute(User user) {
+        long userId = user.id();
+        bot.executeTransfer(user, () -> {
+            Path path = null;
+            try {
+                path = Files.createTempFile("bstorage-export-", LibraryTransfer.FILE_EXTENSION);
+                int count;
+                try (OutputStream outputStream = Files.newOutputStream(path)) {
+                    count = bot.shardRouter.getShard(userId).libraryTransfer.exportFiles(userId, outputStream);
+                }
+                if (count == 0) {
+                    bot.sendMessage(user, bot.messages.getString("export.empty"));
+                    return;
+                }
+                SendResponse response = bot.executeBotRequest(new SendDocument(userId, path.toFile())
+                        .fileName("bstorage-" + userId + LibraryTransfer.FILE_EXTENSION)
+                        .caption(String.format(bot.messages.getString("export.done"), count)));
+                if (!response.isOk()) {
+                    throw new IllegalStateException("Failed to send export: " + response.description());
+                }
+            } catch (Exception e) {
+                bot.logger.error("Failed to export files", e);
+                bot.sendMessage(user, bot.messages.getString("export.failed"));
+            } finally {
+                if (path != null) {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (Exception e) {
+                        bot.logger.warn("Failed to delete export file", e);
+                    }
+                }
+            }
+        });
+    }
+}
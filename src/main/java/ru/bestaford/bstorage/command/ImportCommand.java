@@ -0,0 +1,62 @@
+package ru.bestaford.bstorage.command;
+
+import com.pengrad.telegrambot.model.Document;
+import com.pengrad.telegrambot.model.User;
+import com.pengrad.telegrambot.request.GetFile;
+import com.pengrad.telegrambot.response.GetFileResponse;
+import ru.bestaford.bstorage.BStorageBot;
+import ru.bestaford.bstorage.cache.ExpiringCache;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLConnection;
+import java.util.concurrent.TimeUnit;
+
+public final class ImportCommand extends Command {
+
+    public static final int PENDING_CACHE_SIZE = 10_000;
+    public static final int PENDING_TTL_MINUTES = 10;
+    public static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    public static final int READ_TIMEOUT_MILLIS = 60_000;
+
+    public final ExpiringCache<Long, Boolean> pendingUserIds;
+
+    public ImportCommand(BStorageBot bot) {
+        super(bot, "Import files from an export");
+        pendingUserIds = new ExpiringCache<>(PENDING_CACHE_SIZE, PENDING_TTL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void execute(User user) {
+        pendingUserIds.put(user.id(), true);
+        bot.sendMessage(user, bot.messages.getString("import.send"));
+    }
+
+    public boolean processDocument(User user, Document document) {
+        if (pendingUserIds.remove(user.id()) == null) {
+            return false;
+        }
+        long userId = user.id();
+        bot.executeTransfer(user, () -> {
+            try {
+                GetFileResponse response = bot.executeBotRequest(new GetFile(document.fileId()));
+                if (!response.isOk()) {
+                    throw new IllegalStateException("Failed to get file: " + response.description());
+                }
+                int count;
+                URLConnection urlConnection = URI.create(bot.telegramBot.getFullFilePath(response.file())).toURL().openConnection();
+                urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+                urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+                try (InputStream inputStream = urlConnection.getInputStream()) {
+                    count = bot.shardRouter.getShard(userId).libraryTransfer.importFiles(userId, inputStream);
+                }
+                bot.inlineQueryCache.invalidate(userId);
+                bot.sendMessage(user, String.format(bot.messages.getString("import.done"), count));
+            } catch (Exception e) {
+                bot.logger.error("Failed to import files", e);
+                bot.sendMessage(user, bot.messages.getString("import.failed"));
+            }
+        });
+        return true;
+    }
+}
@@ -1,49 +1,145 @@
 package ru.bestaford.bstorage.command;
 
+import com.pengrad.telegrambot.model.CallbackQuery;
 import com.pengrad.telegrambot.model.User;
+import com.pengrad.telegrambot.model.request.InlineKeyboardButton;
+import com.pengrad.telegrambot.model.request.InlineKeyboardMarkup;
 import com.pengrad.telegrambot.request.*;
 import ru.bestaford.bstorage.BStorageBot;
+import ru.bestaford.bstorage.cache.ExpiringCache;
+import ru.bestaford.bstorage.database.DatabaseConnection;
+import ru.bestaford.bstorage.database.Query;
 import ru.bestaford.bstorage.model.File;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
 
 public final class TagmeCommand extends Command {
 
+    public static final int PAGE_SIZE = 50;
+    public static final int SESSION_CACHE_SIZE = 10_000;
+    public static final int SESSION_TTL_MINUTES = 60;
+
+    public final ExpiringCache<Long, Session> sessions;
+
     public TagmeCommand(BStorageBot bot) {
-        super(bot, "Last untagged file");
+        super(bot, "Tag your untagged files one by one");
+        sessions = new ExpiringCache<>(SESSION_CACHE_SIZE, SESSION_TTL_MINUTES, TimeUnit.MINUTES, true);
     }
 
     @Override
     public void execute(User user) throws Exception {
-        PreparedStatement statement = bot.connection.prepareStatement("""
-                SELECT
-                    *
-                FROM
-                    FILES
-                WHERE
-                    USER_ID = ?
-                    AND TAGS IS NULL
-                ORDER BY
-                    DATETIME DESC
-                FETCH FIRST 1 ROWS ONLY
-                """);
-        statement.setLong(1, user.id());
-        ResultSet resultSet = bot.executeStatement(statement);
-        if (resultSet.next()) {
-            Long userId = user.id();
-            String fileId = resultSet.getString(4);
-            switch (File.Type.valueOf(resultSet.getString(5))) {
-                case PHOTO -> bot.executeAsyncBotRequest(new SendPhoto(userId, fileId));
-                case VIDEO -> bot.executeAsyncBotRequest(new SendVideo(userId, fileId));
-                case DOCUMENT -> bot.executeAsyncBotRequest(new SendDocument(userId, fileId));
-                case AUDIO -> bot.executeAsyncBotRequest(new SendAudio(userId, fileId));
-                case GIF -> bot.executeAsyncBotRequest(new SendAnimation(userId, fileId));
-                case STICKER -> bot.executeAsyncBotRequest(new SendSticker(userId, fileId));
-                case VOICE -> bot.executeAsyncBotRequest(new SendVoice(userId, fileId));
+        Session session = new Session();
+        try (DatabaseConnection connection = bot.shardRouter.getShard(user.id()).database.getConnection()) {
+            PreparedStatement statement = connection.prepareStatement(Query.COUNT_UNTAGGED_FILES);
+            statement.setLong(1, user.id());
+            try (ResultSet resultSet = bot.executeStatement(statement)) {
+                resultSet.next();
+                session.remaining = resultSet.getInt(1);
             }
-        } else {
+        }
+        if (session.remaining == 0) {
+            sessions.remove(user.id());
             bot.sendMessage(user, bot.messages.getString("tagme.empty"));
+            return;
+        }
+        sessions.put(user.id(), session);
+        bot.sendMessage(user, String.format(bot.messages.getString("tagme.start"), session.remaining));
+        synchronized (session) {
+            sendNext(user, session);
+        }
+    }
+
+    public void processFile(User user, String fileUniqueId) throws Exception {
+        Session session = sessions.get(user.id());
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            if (session.current != null && session.current.uniqueId().equals(fileUniqueId)) {
+                session.remaining--;
+                sendNext(user, session);
+            }
+        }
+    }
+
+    @Override
+    public void processCallbackQuery(CallbackQuery callbackQuery, String data) throws Exception {
+        bot.executeAsyncBotRequest(new AnswerCallbackQuery(callbackQuery.id()));
+        User user = callbackQuery.from();
+        Session session = sessions.get(user.id());
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            if (session.current != null && session.current.rowId() == Long.parseLong(data)) {
+                session.remaining--;
+                sendNext(user, session);
+            }
+        }
+    }
+
+    private void sendNext(User user, Session session) throws Exception {
+        if (session.queue.isEmpty() && session.remaining > 0) {
+            prefetch(user.id(), session);
+        }
+        session.current = session.queue.poll();
+        if (session.current == null) {
+            sessions.remove(user.id());
+            bot.sendMessage(user, bot.messages.getString("tagme.done"));
+            return;
+        }
+        File file = session.current;
+        InlineKeyboardMarkup markup = new InlineKeyboardMarkup(new InlineKeyboardButton(String.format(bot.messages.getString("tagme.skip"), session.remaining))
+                .callbackData("tagme:" + file.rowId()));
+        Long userId = user.id();
+        String fileId = file.id();
+        switch (file.type()) {
+            case PHOTO -> bot.executeAsyncBotRequest(new SendPhoto(userId, fileId).replyMarkup(markup));
+            case VIDEO -> bot.executeAsyncBotRequest(new SendVideo(userId, fileId).replyMarkup(markup));
+            case DOCUMENT -> bot.executeAsyncBotRequest(new SendDocument(userId, fileId).replyMarkup(markup));
+            case AUDIO -> bot.executeAsyncBotRequest(new SendAudio(userId, fileId).replyMarkup(markup));
+            case GIF -> bot.executeAsyncBotRequest(new SendAnimation(userId, fileId).replyMarkup(markup));
+            case STICKER -> bot.executeAsyncBotRequest(new SendSticker(userId, fileId).replyMarkup(markup));
+            case VOICE -> bot.executeAsyncBotRequest(new SendVoice(userId, fileId).replyMarkup(markup));
+        }
+    }
+
+    private void prefetch(long userId, Session session) throws Exception {
+        try (DatabaseConnection connection = bot.shardRouter.getShard(userId).database.getConnection()) {
+            PreparedStatement statement;
+            if (session.lastDateTime == null) {
+                statement = connection.prepareStatement(Query.FIND_UNTAGGED_FILES);
+                statement.setLong(1, userId);
+                statement.setInt(2, PAGE_SIZE);
+            } else {
+                statement = connection.prepareStatement(Query.FIND_UNTAGGED_FILES_BEFORE);
+                statement.setLong(1, userId);
+                statement.setTimestamp(2, session.lastDateTime);
+                statement.setTimestamp(3, session.lastDateTime);
+                statement.setLong(4, session.lastRowId);
+                statement.setInt(5, PAGE_SIZE);
+            }
+            try (ResultSet resultSet = bot.executeStatement(statement)) {
+                while (resultSet.next()) {
+                    File file = File.MAPPER.map(resultSet);
+                    session.queue.add(file);
+                    session.lastDateTime = file.dateTime();
+                    session.lastRowId = file.rowId();
+                }
+            }
         }
     }
-}
\ No newline at end of file
+
+    public static final class Session {
+
+        public final ArrayDeque<File> queue = new ArrayDeque<>();
+        public File current;
+        public Timestamp lastDateTime;
+        public long lastRowId;
+        public int remaining;
+    }
+}
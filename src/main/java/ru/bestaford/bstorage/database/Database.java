@@ -0,0 +1,89 @@
+package ru.bestaford.bstorage.database;
+
+import org.flywaydb.core.Flyway;
+import ru.bestaford.bstorage.metrics.Metrics;
+import ru.bestaford.bstorage.metrics.Timer;
+
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class Database implements AutoCloseable {
+
+    public final List<DatabaseConnection> connections;
+    public final BlockingQueue<DatabaseConnection> pool;
+    public final Map<Query, Timer> queryToTimerMap;
+    public final Map<PreparedStatement, Query> statementToQueryMap;
+
+    public Database(String url, String user, String password, int poolSize, Metrics metrics) throws SQLException {
+        Flyway.configure().dataSource(url, user, password).load().migrate();
+
+        queryToTimerMap = new EnumMap<>(Query.class);
+        for (Query query : Query.values()) {
+            queryToTimerMap.put(query, metrics.timer("sql_seconds", "SQL statement latency", "query", query.name().toLowerCase()));
+        }
+        statementToQueryMap = new ConcurrentHashMap<>();
+
+        connections = new ArrayList<>(poolSize);
+        pool = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            DatabaseConnection connection = new DatabaseConnection(this, DriverManager.getConnection(url, user, password));
+            connections.add(connection);
+            pool.add(connection);
+        }
+    }
+
+    public DatabaseConnection getConnection() throws InterruptedException {
+        return pool.take();
+    }
+
+    public Timer getTimer(PreparedStatement statement) {
+        return queryToTimerMap.get(statementToQueryMap.get(statement));
+    }
+
+    public ResultSet executeStatement(PreparedStatement statement) throws SQLException {
+        Timer timer = getTimer(statement);
+        long start = System.nanoTime();
+        try {
+            statement.execute();
+        } catch (SQLException e) {
+            timer.recordError(start);
+            throw e;
+        }
+        timer.recordSince(start);
+        return statement.getResultSet();
+    }
+
+    public int[] executeBatch(PreparedStatement statement) throws SQLException {
+        Timer timer = getTimer(statement);
+        long start = System.nanoTime();
+        int[] result;
+        try {
+            result = statement.executeBatch();
+        } catch (SQLException e) {
+            timer.recordError(start);
+            throw e;
+        }
+        timer.recordSince(start);
+        return result;
+    }
+
+    void release(DatabaseConnection connection) {
+        pool.add(connection);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        for (DatabaseConnection connection : connections) {
+            connection.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ru.bestaford.bstorage.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
+
+public final class DatabaseConnection implements AutoCloseable {
+
+    public final Database database;
+    public final Connection connection;
+    public final Map<Query, PreparedStatement> statementMap;
+
+    public DatabaseConnection(Database database, Connection connection) {
+        this.database = database;
+        this.connection = connection;
+        statementMap = new EnumMap<>(Query.class);
+    }
+
+    public PreparedStatement prepareStatement(Query query) throws SQLException {
+        PreparedStatement statement = statementMap.get(query);
+        if (statement == null) {
+            statement = connection.prepareStatement(query.sql);
+            statementMap.put(query, statement);
+            database.statementToQueryMap.put(statement, query);
+        } else {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    public void beginTransaction() throws SQLException {
+        connection.setAutoCommit(false);
+    }
+
+    public void commit() throws SQLException {
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            database.release(this);
+        }
+    }
+
+    public void closeConnection() throws SQLException {
+        for (PreparedStatement statement : statementMap.values()) {
+            database.statementToQueryMap.remove(statement);
+            statement.close();
+        }
+        statementMap.clear();
+        connection.close();
+    }
+}
@@ -0,0 +1,409 @@
+package ru.bestaford.bstorage.database;
+
+import com.pengrad.telegrambot.model.Message;
+import com.pengrad.telegrambot.model.User;
+import ru.bestaford.bstorage.BStorageBot;
+import ru.bestaford.bstorage.model.File;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+public final class FileWriter implements AutoCloseable {
+
+    public static final String SQL_STATE_DUPLICATE_KEY = "23505";
+    public static final int MAX_ATTEMPTS = 3;
+
+    public final BStorageBot bot;
+    public final int batchSize;
+    public final long delayMillis;
+    public final List<ScheduledExecutorService> executors;
+    public final Map<Long, List<Write>> userIdToWritesMap;
+
+    public FileWriter(BStorageBot bot, int threadCount, int batchSize, long delayMillis) {
+        this.bot = bot;
+        this.batchSize = batchSize;
+        this.delayMillis = delayMillis;
+        executors = new ArrayList<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            executors.add(Executors.newSingleThreadScheduledExecutor());
+        }
+        userIdToWritesMap = new ConcurrentHashMap<>();
+    }
+
+    public void write(Write write) {
+        long userId = write.user().id();
+        int[] size = new int[1];
+        userIdToWritesMap.compute(userId, (id, writes) -> {
+            if (writes == null) {
+                writes = new ArrayList<>();
+            }
+            writes.add(write);
+            size[0] = writes.size();
+            return writes;
+        });
+        ScheduledExecutorService executor = getExecutor(userId);
+        if (size[0] == 1) {
+            executor.schedule(() -> flush(userId), delayMillis, TimeUnit.MILLISECONDS);
+        } else if (size[0] == batchSize) {
+            executor.execute(() -> flush(userId));
+        }
+    }
+
+    public ScheduledExecutorService getExecutor(long userId) {
+        return executors.get(Math.floorMod(Long.hashCode(userId), executors.size()));
+    }
+
+    public int size() {
+        int size = 0;
+        for (List<Write> writes : userIdToWritesMap.values()) {
+            size += writes.size();
+        }
+        return size;
+    }
+
+    public void flush(long userId) {
+        List<Write> writes = userIdToWritesMap.remove(userId);
+        if (writes == null) {
+            return;
+        }
+        int attempt = 1;
+        while (true) {
+            try {
+                process(userId, writes);
+            } catch (SQLException e) {
+                if (attempt++ < MAX_ATTEMPTS && SQL_STATE_DUPLICATE_KEY.equals(e.getSQLState())) {
+                    continue;
+                }
+                bot.logger.error("Failed to save files", e);
+            } catch (Exception e) {
+                bot.logger.error("Failed to save files", e);
+            }
+            return;
+        }
+    }
+
+    private void process(long userId, List<Write> writes) throws Exception {
+        Map<String, Write> fileUniqueIdToWriteMap = new LinkedHashMap<>();
+        for (Write write : writes) {
+            fileUniqueIdToWriteMap.put(write.fileUniqueId(), write);
+        }
+        Map<String, Long> fileUniqueIdToRowIdMap = new HashMap<>();
+        Map<Long, String> rowIdToTagsMap = new HashMap<>();
+        Map<Long, Integer> rowIdToSeqMap = new HashMap<>();
+        List<Reply> replies = new ArrayList<>(writes.size());
+        List<Long> deletedRowIds = new ArrayList<>();
+        List<Write> mergedWrites = new ArrayList<>();
+        Shard shard = bot.shardRouter.getShard(userId);
+        Lock userLock = shard.getUserLock(userId);
+        userLock.lock();
+        shard.contentLock.readLock().lock();
+        try (DatabaseConnection connection = shard.database.getConnection()) {
+            connection.beginTransaction();
+            PreparedStatement findStatement = connection.prepareStatement(Query.FIND_FILES_STATE_BY_FILE_UNIQUE_IDS);
+            findStatement.setObject(1, fileUniqueIdToWriteMap.keySet().toArray(new String[0]));
+            findStatement.setLong(2, userId);
+            try (ResultSet resultSet = bot.executeStatement(findStatement)) {
+                while (resultSet.next()) {
+                    long rowId = resultSet.getLong(2);
+                    fileUniqueIdToRowIdMap.put(resultSet.getString(1), rowId);
+                    rowIdToTagsMap.put(rowId, resultSet.getString(3));
+                    rowIdToSeqMap.put(rowId, resultSet.getInt(4));
+                }
+            }
+
+            Set<String> existingFileUniqueIds = new HashSet<>(fileUniqueIdToRowIdMap.keySet());
+            Map<String, Write> fileUniqueIdToFinalWriteMap = new LinkedHashMap<>();
+            for (Write write : writes) {
+                String tags = write.tags();
+                if (existingFileUniqueIds.contains(write.fileUniqueId()) && (tags == null || tags.isBlank())) {
+                    existingFileUniqueIds.remove(write.fileUniqueId());
+                    fileUniqueIdToFinalWriteMap.put(write.fileUniqueId(), null);
+                    replies.add(new Reply(write, true));
+                } else {
+                    existingFileUniqueIds.add(write.fileUniqueId());
+                    fileUniqueIdToFinalWriteMap.put(write.fileUniqueId(), write);
+                    replies.add(new Reply(write, false));
+                }
+            }
+            Map<String, Integer> tagDeltaMap = new HashMap<>();
+            int insertedCount = 0;
+            for (Map.Entry<String, Write> entry : fileUniqueIdToFinalWriteMap.entrySet()) {
+                Long rowId = fileUniqueIdToRowIdMap.get(entry.getKey());
+                Write write = entry.getValue();
+                if (write == null) {
+                    if (rowId != null) {
+                        deletedRowIds.add(rowId);
+                    }
+                } else {
+                    mergedWrites.add(write);
+                    if (rowId == null) {
+                        insertedCount++;
+                    }
+                }
+                if (rowId != null || write != null) {
+                    addTagDeltas(tagDeltaMap, rowIdToTagsMap.get(rowId), write == null ? null : write.tags());
+                }
+            }
+            if (insertedCount > 0) {
+                PreparedStatement idStatement = connection.prepareStatement(Query.NEXT_FILE_IDS);
+                idStatement.setInt(1, insertedCount);
+                try (ResultSet resultSet = bot.executeStatement(idStatement)) {
+                    for (Write write : mergedWrites) {
+                        if (!fileUniqueIdToRowIdMap.containsKey(write.fileUniqueId()) && resultSet.next()) {
+                            fileUniqueIdToRowIdMap.put(write.fileUniqueId(), resultSet.getLong(1));
+                        }
+                    }
+                }
+            }
+
+            int lastSeq = bot.findLastFileSeq(connection, userId);
+            int count = lastSeq + 1 - deletedRowIds.size() + insertedCount;
+            Set<Integer> deletedSeqs = new HashSet<>();
+            Deque<Integer> freeSeqs = new ArrayDeque<>();
+            for (long rowId : deletedRowIds) {
+                deletedSeqs.add(rowIdToSeqMap.get(rowId));
+            }
+            for (int seq : new TreeSet<>(deletedSeqs)) {
+                if (seq < count) {
+                    freeSeqs.add(seq);
+                }
+            }
+            for (int seq = lastSeq + 1; seq < count; seq++) {
+                freeSeqs.add(seq);
+            }
+
+            if (!deletedRowIds.isEmpty()) {
+                PreparedStatement deleteStatement = connection.prepareStatement(Query.DELETE_FILE);
+                for (long rowId : deletedRowIds) {
+                    deleteStatement.setLong(1, rowId);
+                    deleteStatement.addBatch();
+                }
+                bot.executeBatch(deleteStatement);
+                Map<Integer, Long> seqToRowIdMap = new HashMap<>();
+                for (Map.Entry<Long, Integer> entry : rowIdToSeqMap.entrySet()) {
+                    seqToRowIdMap.put(entry.getValue(), entry.getKey());
+                }
+                PreparedStatement moveStatement = connection.prepareStatement(Query.MOVE_LAST_FILE_SEQ);
+                boolean moved = false;
+                for (int seq = count; seq <= lastSeq; seq++) {
+                    if (!deletedSeqs.contains(seq)) {
+                        int freeSeq = freeSeqs.remove();
+                        moveStatement.setInt(1, freeSeq);
+                        moveStatement.setLong(2, userId);
+                        moveStatement.setInt(3, seq);
+                        moveStatement.addBatch();
+                        moved = true;
+                        Long movedRowId = seqToRowIdMap.get(seq);
+                        if (movedRowId != null) {
+                            rowIdToSeqMap.put(movedRowId, freeSeq);
+                        }
+                    }
+                }
+                if (moved) {
+                    bot.executeBatch(moveStatement);
+                }
+            }
+            if (!mergedWrites.isEmpty()) {
+                Map<String, Long> fileUniqueIdToContentIdMap = mergeFileContents(connection, mergedWrites);
+                PreparedStatement mergeStatement = connection.prepareStatement(Query.MERGE_FILE);
+                for (Write write : mergedWrites) {
+                    long rowId = fileUniqueIdToRowIdMap.get(write.fileUniqueId());
+                    Integer seq = rowIdToSeqMap.get(rowId);
+                    mergeStatement.setLong(1, rowId);
+                    mergeStatement.setLong(2, userId);
+                    mergeStatement.setLong(3, fileUniqueIdToContentIdMap.get(write.fileUniqueId()));
+                    mergeStatement.setString(4, write.tags());
+                    mergeStatement.setTimestamp(5, write.dateTime());
+                    mergeStatement.setInt(6, seq == null ? freeSeqs.remove() : seq);
+                    mergeStatement.setString(7, write.fileName());
+                    mergeStatement.addBatch();
+                }
+                bot.executeBatch(mergeStatement);
+                updateFileTags(connection, userId, mergedWrites, fileUniqueIdToRowIdMap, rowIdToTagsMap);
+            }
+            updateTagCounts(connection, userId, tagDeltaMap);
+            connection.commit();
+        } finally {
+            shard.contentLock.readLock().unlock();
+            userLock.unlock();
+        }
+
+        for (long rowId : deletedRowIds) {
+            shard.searchIndex.delete(rowId);
+        }
+        for (Write write : mergedWrites) {
+            shard.searchIndex.update(fileUniqueIdToRowIdMap.get(write.fileUniqueId()), userId, write.tags());
+        }
+        shard.searchIndex.refresh();
+        bot.inlineQueryCache.invalidate(userId);
+        sendReplies(replies);
+    }
+
+    private void sendReplies(List<Reply> replies) {
+        Map<String, List<Reply>> groupMap = new LinkedHashMap<>();
+        for (Reply reply : replies) {
+            String mediaGroupId = reply.write().message().mediaGroupId();
+            String key = mediaGroupId == null
+                    ? "message:" + reply.write().message().messageId()
+                    : "group:" + mediaGroupId + ":" + reply.deleted() + ":" + reply.write().tags();
+            groupMap.computeIfAbsent(key, k -> new ArrayList<>()).add(reply);
+        }
+        for (List<Reply> group : groupMap.values()) {
+            Reply reply = group.get(0);
+            Write write = reply.write();
+            String tags = write.tags();
+            String text;
+            if (group.size() == 1) {
+                if (reply.deleted()) {
+                    text = bot.messages.getString("file.deleted");
+                } else if (tags == null) {
+                    text = bot.messages.getString("file.saved");
+                } else {
+                    text = String.format(bot.messages.getString("file.saved.tags"), tags.replaceAll(BStorageBot.REGEX_EVERY_WORD, "#$1"));
+                }
+            } else {
+                if (reply.deleted()) {
+                    text = String.format(bot.messages.getString("files.deleted"), group.size());
+                } else if (tags == null) {
+                    text = String.format(bot.messages.getString("files.saved"), group.size());
+                } else {
+                    text = String.format(bot.messages.getString("files.saved.tags"), group.size(), tags.replaceAll(BStorageBot.REGEX_EVERY_WORD, "#$1"));
+                }
+            }
+            bot.replyToMessage(write.user(), text, write.message().messageId());
+        }
+    }
+
+    public Map<String, Long> mergeFileContents(DatabaseConnection connection, List<Write> writes) throws SQLException {
+        PreparedStatement mergeStatement = connection.prepareStatement(Query.INSERT_MISSING_FILE_CONTENT);
+        String[] fileUniqueIds = new String[writes.size()];
+        for (int i = 0; i < writes.size(); i++) {
+            Write write = writes.get(i);
+            fileUniqueIds[i] = write.fileUniqueId();
+            mergeStatement.setString(1, write.fileUniqueId());
+            mergeStatement.setString(2, write.fileId());
+            mergeStatement.setByte(3, write.fileType().code);
+            mergeStatement.addBatch();
+        }
+        bot.executeBatch(mergeStatement);
+        Map<String, Long> fileUniqueIdToContentIdMap = new HashMap<>();
+        PreparedStatement findStatement = connection.prepareStatement(Query.FIND_FILE_CONTENT_IDS_BY_FILE_UNIQUE_IDS);
+        findStatement.setObject(1, fileUniqueIds);
+        try (ResultSet resultSet = bot.executeStatement(findStatement)) {
+            while (resultSet.next()) {
+                fileUniqueIdToContentIdMap.put(resultSet.getString(1), resultSet.getLong(2));
+            }
+        }
+        return fileUniqueIdToContentIdMap;
+    }
+
+    public void updateFileTags(DatabaseConnection connection, long userId, List<Write> writes, Map<String, Long> fileUniqueIdToRowIdMap, Map<Long, String> rowIdToTagsMap) throws SQLException {
+        PreparedStatement updateStatement = connection.prepareStatement(Query.UPDATE_FILE_TAGS_DATETIME);
+        PreparedStatement deleteStatement = connection.prepareStatement(Query.DELETE_FILE_TAG);
+        PreparedStatement insertStatement = connection.prepareStatement(Query.INSERT_FILE_TAG);
+        boolean updated = false;
+        boolean deleted = false;
+        boolean inserted = false;
+        for (Write write : writes) {
+            long rowId = fileUniqueIdToRowIdMap.get(write.fileUniqueId());
+            Set<String> oldTagSet = BStorageBot.splitTags(rowIdToTagsMap.get(rowId));
+            Set<String> newTagSet = BStorageBot.splitTags(write.tags());
+            if (!oldTagSet.isEmpty()) {
+                updateStatement.setTimestamp(1, write.dateTime());
+                updateStatement.setLong(2, rowId);
+                updateStatement.addBatch();
+                updated = true;
+            }
+            for (String tag : oldTagSet) {
+                if (!newTagSet.contains(tag)) {
+                    deleteStatement.setLong(1, rowId);
+                    deleteStatement.setString(2, tag);
+                    deleteStatement.addBatch();
+                    deleted = true;
+                }
+            }
+            for (String tag : newTagSet) {
+                if (!oldTagSet.contains(tag)) {
+                    insertStatement.setLong(1, rowId);
+                    insertStatement.setString(2, tag);
+                    insertStatement.setLong(3, userId);
+                    insertStatement.setTimestamp(4, write.dateTime());
+                    insertStatement.addBatch();
+                    inserted = true;
+                }
+            }
+        }
+        if (updated) {
+            bot.executeBatch(updateStatement);
+        }
+        if (deleted) {
+            bot.executeBatch(deleteStatement);
+        }
+        if (inserted) {
+            bot.executeBatch(insertStatement);
+        }
+    }
+
+    public void updateTagCounts(DatabaseConnection connection, long userId, Map<String, Integer> tagDeltaMap) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(Query.ADD_USER_TAG_COUNT);
+        boolean changed = false;
+        for (Map.Entry<String, Integer> entry : tagDeltaMap.entrySet()) {
+            if (entry.getValue() != 0) {
+                statement.setLong(1, userId);
+                statement.setString(2, entry.getKey());
+                statement.setInt(3, entry.getValue());
+                statement.addBatch();
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        bot.executeBatch(statement);
+        PreparedStatement deleteStatement = connection.prepareStatement(Query.DELETE_UNUSED_USER_TAGS);
+        deleteStatement.setLong(1, userId);
+        bot.executeStatement(deleteStatement);
+    }
+
+    public static void addTagDeltas(Map<String, Integer> tagDeltaMap, String oldTags, String newTags) {
+        Set<String> oldTagSet = BStorageBot.splitTags(oldTags);
+        Set<String> newTagSet = BStorageBot.splitTags(newTags);
+        for (String tag : oldTagSet) {
+            if (!newTagSet.contains(tag)) {
+                tagDeltaMap.merge(tag, -1, Integer::sum);
+            }
+        }
+        for (String tag : newTagSet) {
+            if (!oldTagSet.contains(tag)) {
+                tagDeltaMap.merge(tag, 1, Integer::sum);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        for (ScheduledExecutorService executor : executors) {
+            executor.shutdown();
+        }
+        for (ScheduledExecutorService executor : executors) {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        for (Long userId : new ArrayList<>(userIdToWritesMap.keySet())) {
+            flush(userId);
+        }
+    }
+
+    public record Write(User user, Message message, String fileUniqueId, String fileId, String fileName, File.Type fileType, String tags, Timestamp dateTime) {
+    }
+
+    private record Reply(Write write, boolean deleted) {
+    }
+}
@@ -0,0 +1,282 @@
+package ru.bestaford.bstorage.database;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import ru.bestaford.bstorage.BStorageBot;
+import ru.bestaford.bstorage.model.File;
+import ru.bestaford.bstorage.search.SearchIndex;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public final class LibraryTransfer {
+
+    public static final int EXPORT_PAGE_SIZE = 1000;
+    public static final int IMPORT_BATCH_SIZE = 1000;
+    public static final String FILE_EXTENSION = ".ndjson.gz";
+
+    public static final String FIELD_FILE_UNIQUE_ID = "file_unique_id";
+    public static final String FIELD_FILE_ID = "file_id";
+    public static final String FIELD_FILE_TYPE = "file_type";
+    public static final String FIELD_FILE_NAME = "file_name";
+    public static final String FIELD_TAGS = "tags";
+    public static final String FIELD_DATETIME = "datetime";
+
+    public final Shard shard;
+    public final Database database;
+    public final SearchIndex searchIndex;
+
+    public LibraryTransfer(Shard shard) {
+        this.shard = shard;
+        database = shard.database;
+        searchIndex = shard.searchIndex;
+    }
+
+    public int exportFiles(long userId, OutputStream outputStream) throws Exception {
+        int count = 0;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(outputStream), StandardCharsets.UTF_8));
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.setLenient(true);
+        try (DatabaseConnection connection = database.getConnection()) {
+            PreparedStatement statement = connection.prepareStatement(Query.FIND_USER_FILES_BEFORE);
+            int lastSeq = Integer.MAX_VALUE;
+            int pageCount;
+            do {
+                pageCount = 0;
+                statement.setLong(1, userId);
+                statement.setInt(2, lastSeq);
+                statement.setInt(3, EXPORT_PAGE_SIZE);
+                statement.setFetchSize(EXPORT_PAGE_SIZE);
+                try (ResultSet resultSet = database.executeStatement(statement)) {
+                    while (resultSet.next()) {
+                        File file = File.MAPPER.map(resultSet);
+                        lastSeq = file.seq();
+                        jsonWriter.beginObject();
+                        jsonWriter.name(FIELD_FILE_UNIQUE_ID).value(file.uniqueId());
+                        jsonWriter.name(FIELD_FILE_ID).value(file.id());
+                        jsonWriter.name(FIELD_FILE_TYPE).value(file.type().toString());
+                        jsonWriter.name(FIELD_FILE_NAME).value(file.fileName());
+                        jsonWriter.name(FIELD_TAGS).value(file.tags());
+                        jsonWriter.name(FIELD_DATETIME).value(file.dateTime().toLocalDateTime().toString());
+                        jsonWriter.endObject();
+                        writer.write('\n');
+                        pageCount++;
+                    }
+                }
+                count += pageCount;
+            } while (pageCount == EXPORT_PAGE_SIZE);
+        }
+        jsonWriter.close();
+        return count;
+    }
+
+    public int importFiles(long userId, InputStream inputStream) throws Exception {
+        int count = 0;
+        Reader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(inputStream), StandardCharsets.UTF_8));
+        try (JsonReader jsonReader = new JsonReader(reader)) {
+            jsonReader.setLenient(true);
+            Map<String, Entry> fileUniqueIdToEntryMap = new LinkedHashMap<>();
+            while (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+                Entry entry = readEntry(jsonReader);
+                fileUniqueIdToEntryMap.put(entry.fileUniqueId(), entry);
+                if (fileUniqueIdToEntryMap.size() == IMPORT_BATCH_SIZE) {
+                    count += importBatch(userId, fileUniqueIdToEntryMap);
+                    fileUniqueIdToEntryMap.clear();
+                }
+            }
+            if (!fileUniqueIdToEntryMap.isEmpty()) {
+                count += importBatch(userId, fileUniqueIdToEntryMap);
+            }
+        } finally {
+            searchIndex.refresh();
+        }
+        return count;
+    }
+
+    public void deleteFiles(long userId) throws Exception {
+        try (DatabaseConnection connection = database.getConnection()) {
+            connection.beginTransaction();
+            PreparedStatement filesStatement = connection.prepareStatement(Query.DELETE_USER_FILES);
+            filesStatement.setLong(1, userId);
+            database.executeStatement(filesStatement);
+            PreparedStatement tagsStatement = connection.prepareStatement(Query.DELETE_USER_TAGS);
+            tagsStatement.setLong(1, userId);
+            database.executeStatement(tagsStatement);
+            connection.commit();
+        }
+        searchIndex.deleteUser(userId);
+        searchIndex.refresh();
+    }
+
+    private int importBatch(long userId, Map<String, Entry> fileUniqueIdToEntryMap) throws Exception {
+        int attempt = 1;
+        while (true) {
+            try {
+                return importEntries(userId, fileUniqueIdToEntryMap);
+            } catch (SQLException e) {
+                if (attempt++ == FileWriter.MAX_ATTEMPTS || !FileWriter.SQL_STATE_DUPLICATE_KEY.equals(e.getSQLState())) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private int importEntries(long userId, Map<String, Entry> fileUniqueIdToEntryMap) throws Exception {
+        Map<Long, Entry> rowIdToEntryMap = new LinkedHashMap<>();
+        Lock userLock = shard.getUserLock(userId);
+        userLock.lock();
+        shard.contentLock.readLock().lock();
+        try (DatabaseConnection connection = database.getConnection()) {
+            connection.beginTransaction();
+            Set<String> existingFileUniqueIds = new HashSet<>();
+            PreparedStatement findStatement = connection.prepareStatement(Query.FIND_FILES_STATE_BY_FILE_UNIQUE_IDS);
+            findStatement.setObject(1, fileUniqueIdToEntryMap.keySet().toArray(new String[0]));
+            findStatement.setLong(2, userId);
+            try (ResultSet resultSet = database.executeStatement(findStatement)) {
+                while (resultSet.next()) {
+                    existingFileUniqueIds.add(resultSet.getString(1));
+                }
+            }
+            List<Entry> entries = new ArrayList<>();
+            for (Entry entry : fileUniqueIdToEntryMap.values()) {
+                if (!existingFileUniqueIds.contains(entry.fileUniqueId())) {
+                    entries.add(entry);
+                }
+            }
+            if (entries.isEmpty()) {
+                return 0;
+            }
+
+            PreparedStatement idStatement = connection.prepareStatement(Query.NEXT_FILE_IDS);
+            idStatement.setInt(1, entries.size());
+            try (ResultSet resultSet = database.executeStatement(idStatement)) {
+                for (Entry entry : entries) {
+                    resultSet.next();
+                    rowIdToEntryMap.put(resultSet.getLong(1), entry);
+                }
+            }
+            int seq;
+            PreparedStatement seqStatement = connection.prepareStatement(Query.FIND_LAST_FILE_SEQ);
+            seqStatement.setLong(1, userId);
+            try (ResultSet resultSet = database.executeStatement(seqStatement)) {
+                seq = resultSet.next() ? resultSet.getInt(1) + 1 : 0;
+            }
+
+            PreparedStatement contentStatement = connection.prepareStatement(Query.INSERT_MISSING_FILE_CONTENT);
+            String[] fileUniqueIds = new String[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                fileUniqueIds[i] = entry.fileUniqueId();
+                contentStatement.setString(1, entry.fileUniqueId());
+                contentStatement.setString(2, entry.fileId());
+                contentStatement.setByte(3, entry.fileType().code);
+                contentStatement.addBatch();
+            }
+            database.executeBatch(contentStatement);
+            Map<String, Long> fileUniqueIdToContentIdMap = new HashMap<>();
+            PreparedStatement contentIdStatement = connection.prepareStatement(Query.FIND_FILE_CONTENT_IDS_BY_FILE_UNIQUE_IDS);
+            contentIdStatement.setObject(1, fileUniqueIds);
+            try (ResultSet resultSet = database.executeStatement(contentIdStatement)) {
+                while (resultSet.next()) {
+                    fileUniqueIdToContentIdMap.put(resultSet.getString(1), resultSet.getLong(2));
+                }
+            }
+
+            PreparedStatement mergeStatement = connection.prepareStatement(Query.MERGE_FILE);
+            PreparedStatement tagStatement = connection.prepareStatement(Query.INSERT_FILE_TAG);
+            Map<String, Integer> tagDeltaMap = new HashMap<>();
+            boolean tagged = false;
+            for (Map.Entry<Long, Entry> mapEntry : rowIdToEntryMap.entrySet()) {
+                long rowId = mapEntry.getKey();
+                Entry entry = mapEntry.getValue();
+                mergeStatement.setLong(1, rowId);
+                mergeStatement.setLong(2, userId);
+                mergeStatement.setLong(3, fileUniqueIdToContentIdMap.get(entry.fileUniqueId()));
+                mergeStatement.setString(4, entry.tags());
+                mergeStatement.setTimestamp(5, entry.dateTime());
+                mergeStatement.setInt(6, seq++);
+                mergeStatement.setString(7, entry.fileName());
+                mergeStatement.addBatch();
+                for (String tag : BStorageBot.splitTags(entry.tags())) {
+                    tagStatement.setLong(1, rowId);
+                    tagStatement.setString(2, tag);
+                    tagStatement.setLong(3, userId);
+                    tagStatement.setTimestamp(4, entry.dateTime());
+                    tagStatement.addBatch();
+                    tagDeltaMap.merge(tag, 1, Integer::sum);
+                    tagged = true;
+                }
+            }
+            database.executeBatch(mergeStatement);
+            if (tagged) {
+                database.executeBatch(tagStatement);
+                PreparedStatement countStatement = connection.prepareStatement(Query.ADD_USER_TAG_COUNT);
+                for (Map.Entry<String, Integer> tagDelta : tagDeltaMap.entrySet()) {
+                    countStatement.setLong(1, userId);
+                    countStatement.setString(2, tagDelta.getKey());
+                    countStatement.setInt(3, tagDelta.getValue());
+                    countStatement.addBatch();
+                }
+                database.executeBatch(countStatement);
+            }
+            connection.commit();
+        } finally {
+            shard.contentLock.readLock().unlock();
+            userLock.unlock();
+        }
+        for (Map.Entry<Long, Entry> mapEntry : rowIdToEntryMap.entrySet()) {
+            searchIndex.add(mapEntry.getKey(), userId, mapEntry.getValue().tags());
+        }
+        return rowIdToEntryMap.size();
+    }
+
+    private static Entry readEntry(JsonReader jsonReader) throws IOException {
+        String fileUniqueId = null;
+        String fileId = null;
+        File.Type fileType = null;
+        String fileName = null;
+        String tags = null;
+        Timestamp dateTime = null;
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            String name = jsonReader.nextName();
+            if (jsonReader.peek() == JsonToken.NULL) {
+                jsonReader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case FIELD_FILE_UNIQUE_ID -> fileUniqueId = jsonReader.nextString();
+                case FIELD_FILE_ID -> fileId = jsonReader.nextString();
+                case FIELD_FILE_TYPE -> fileType = File.Type.valueOf(jsonReader.nextString());
+                case FIELD_FILE_NAME -> fileName = jsonReader.nextString();
+                case FIELD_TAGS -> tags = jsonReader.nextString();
+                case FIELD_DATETIME -> dateTime = Timestamp.valueOf(LocalDateTime.parse(jsonReader.nextString()));
+                default -> jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+        if (fileUniqueId == null || fileId == null || fileType == null) {
+            throw new IOException("Missing required field at " + jsonReader.getPath());
+        }
+        if (tags != null) {
+            tags = tags.trim().replaceAll(BStorageBot.REGEX_WHITESPACES, " ").toLowerCase();
+            if (tags.isEmpty()) {
+                tags = null;
+            }
+        }
+        return new Entry(fileUniqueId, fileId, fileType, fileName, tags, dateTime == null ? Timestamp.valueOf(LocalDateTime.now()) : dateTime);
+    }
+
+    private record Entry(String fileUniqueId, String fileId, File.Type fileType, String fileName, String tags, Timestamp dateTime) {
+    }
+}
@@ -0,0 +1,206 @@
+package ru.bestaford.bstorage.database;
+
+import org.h2.engine.SessionLocal;
+import org.h2.jdbc.JdbcConnection;
+import org.h2.mvstore.FileStore;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.RandomAccessStore;
+import ru.bestaford.bstorage.BStorageBot;
+import ru.bestaford.bstorage.metrics.Timer;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Maintenance implements AutoCloseable {
+
+    public static final int TARGET_FILL_RATE = 90;
+    public static final int COMPACT_BYTES_PER_SLICE = 16 << 20;
+    public static final int MAX_COMPACT_SLICES = 100;
+    public static final int CONTENT_IDS_PER_SLICE = 10_000;
+    public static final long IDLE_CHECK_MILLIS = 100;
+    public static final long MAX_IDLE_WAIT_MILLIS = 10_000;
+
+    public final BStorageBot bot;
+    public final double dutyCycle;
+    public final ScheduledExecutorService executor;
+    public final CountDownLatch stopLatch;
+    public final LongAdder reclaimedDatabaseBytes;
+    public final LongAdder reclaimedSearchIndexBytes;
+    public final LongAdder deletedFileContents;
+    public final Map<Step, Timer> stepToTimerMap;
+    public volatile double progress;
+
+    public Maintenance(BStorageBot bot, double dutyCycle) {
+        this.bot = bot;
+        this.dutyCycle = dutyCycle;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "maintenance"));
+        stopLatch = new CountDownLatch(1);
+        reclaimedDatabaseBytes = new LongAdder();
+        reclaimedSearchIndexBytes = new LongAdder();
+        deletedFileContents = new LongAdder();
+        progress = 1;
+        stepToTimerMap = new EnumMap<>(Step.class);
+        for (Step step : Step.values()) {
+            stepToTimerMap.put(step, bot.metrics.timer("maintenance_seconds", "Background maintenance step duration", "step", step.name().toLowerCase()));
+        }
+        bot.metrics.gauge("maintenance_reclaimed_bytes", "Bytes reclaimed by background maintenance", "store", "database", reclaimedDatabaseBytes::sum);
+        bot.metrics.gauge("maintenance_reclaimed_bytes", "Bytes reclaimed by background maintenance", "store", "search_index", reclaimedSearchIndexBytes::sum);
+        bot.metrics.gauge("maintenance_deleted_rows", "Rows deleted by background maintenance", "table", "file_contents", deletedFileContents::sum);
+        bot.metrics.gauge("maintenance_progress", "Share of the current maintenance run that is done", "run", "current", () -> progress);
+    }
+
+    public void start(long period, TimeUnit unit) {
+        executor.scheduleWithFixedDelay(this::run, period, period, unit);
+    }
+
+    public void run() {
+        List<Shard> shards = bot.shardRouter.shards;
+        Step[] steps = Step.values();
+        int stepCount = shards.size() * steps.length;
+        int doneCount = 0;
+        progress = 0;
+        bot.logger.info("Maintenance started");
+        try {
+            for (Shard shard : shards) {
+                for (Step step : steps) {
+                    Timer timer = stepToTimerMap.get(step);
+                    long start = System.nanoTime();
+                    try {
+                        long result = switch (step) {
+                            case FILE_CONTENTS -> deleteUnusedFileContents(shard);
+                            case SEARCH_INDEX -> mergeSearchIndex(shard);
+                            case STATISTICS -> analyze(shard);
+                            case DATABASE -> compactDatabase(shard);
+                        };
+                        timer.recordSince(start);
+                        progress = (double) ++doneCount / stepCount;
+                        bot.logger.info(String.format("Maintenance of shard %d: %s in %d ms (%.0f%% done)", shard.index,
+                                String.format(step.format, result), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), progress * 100));
+                    } catch (CancellationException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        timer.recordError(start);
+                        progress = (double) ++doneCount / stepCount;
+                        bot.logger.error(String.format("Maintenance of shard %d: %s failed", shard.index, step.name().toLowerCase()), e);
+                    }
+                }
+            }
+            bot.logger.info("Maintenance finished");
+        } catch (CancellationException e) {
+            bot.logger.info("Maintenance stopped");
+        }
+        progress = 1;
+    }
+
+    private long deleteUnusedFileContents(Shard shard) throws Exception {
+        long lastId;
+        try (DatabaseConnection connection = shard.database.getConnection()) {
+            PreparedStatement statement = connection.prepareStatement(Query.FIND_LAST_FILE_CONTENT_ID);
+            try (ResultSet resultSet = bot.executeStatement(statement)) {
+                resultSet.next();
+                lastId = resultSet.getLong(1);
+            }
+        }
+        long deletedCount = 0;
+        for (long id = 0; id < lastId; id += CONTENT_IDS_PER_SLICE) {
+            long start = System.nanoTime();
+            shard.contentLock.writeLock().lock();
+            try (DatabaseConnection connection = shard.database.getConnection()) {
+                PreparedStatement statement = connection.prepareStatement(Query.DELETE_UNUSED_FILE_CONTENTS);
+                statement.setLong(1, id);
+                statement.setLong(2, id + CONTENT_IDS_PER_SLICE);
+                bot.executeStatement(statement);
+                int updateCount = statement.getUpdateCount();
+                deletedFileContents.add(updateCount);
+                deletedCount += updateCount;
+            } catch (SQLException e) {
+                bot.logger.warn(String.format("Failed to delete unused file contents after id %d on shard %d", id, shard.index), e);
+            } finally {
+                shard.contentLock.writeLock().unlock();
+            }
+            pause(start);
+        }
+        return deletedCount;
+    }
+
+    private long mergeSearchIndex(Shard shard) throws Exception {
+        long start = System.nanoTime();
+        long reclaimed = shard.searchIndex.mergeDeletes();
+        reclaimedSearchIndexBytes.add(Math.max(reclaimed, 0));
+        pause(start);
+        return reclaimed;
+    }
+
+    private long analyze(Shard shard) throws Exception {
+        long start = System.nanoTime();
+        try (DatabaseConnection connection = shard.database.getConnection()) {
+            bot.executeStatement(connection.prepareStatement(Query.ANALYZE));
+        }
+        pause(start);
+        return 0;
+    }
+
+    private long compactDatabase(Shard shard) throws Exception {
+        MVStore store;
+        try (DatabaseConnection connection = shard.database.getConnection()) {
+            store = ((SessionLocal) connection.connection.unwrap(JdbcConnection.class).getSession()).getDatabase().getStore().getMvStore();
+        }
+        FileStore<?> fileStore = store.getFileStore();
+        long size = fileStore.size();
+        for (int i = 0; i < MAX_COMPACT_SLICES && store.getFillRate() < TARGET_FILL_RATE; i++) {
+            long start = System.nanoTime();
+            store.compact(TARGET_FILL_RATE, COMPACT_BYTES_PER_SLICE);
+            if (fileStore instanceof RandomAccessStore randomAccessStore) {
+                randomAccessStore.compactMoveChunks(100, COMPACT_BYTES_PER_SLICE, store);
+            }
+            pause(start);
+        }
+        long reclaimed = size - fileStore.size();
+        reclaimedDatabaseBytes.add(Math.max(reclaimed, 0));
+        return reclaimed;
+    }
+
+    private void pause(long startNanos) {
+        long busyNanos = System.nanoTime() - startNanos;
+        try {
+            if (stopLatch.await((long) (busyNanos * (1 - dutyCycle) / dutyCycle), TimeUnit.NANOSECONDS)) {
+                throw new CancellationException();
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_IDLE_WAIT_MILLIS);
+            while ((bot.dispatcher.size() > 0 || bot.fileWriter.size() > 0) && System.nanoTime() < deadline) {
+                if (stopLatch.await(IDLE_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    throw new CancellationException();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        stopLatch.countDown();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    public enum Step {
+        FILE_CONTENTS("deleted %d unused file contents"),
+        SEARCH_INDEX("reclaimed %d bytes of the search index"),
+        STATISTICS("updated statistics"),
+        DATABASE("reclaimed %d bytes of the database file");
+
+        public final String format;
+
+        Step(String format) {
+            this.format = format;
+        }
+    }
+}
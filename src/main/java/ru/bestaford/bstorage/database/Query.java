@@ -0,0 +1,485 @@
+package ru.bestaford.bstorage.database;
+
+public enum Query {
+    FIND_RECENT_FILES("""
+            SELECT
+                F.ID,
+                C.FILE_ID,
+                C.FILE_TYPE,
+                F.FILE_NAME,
+                F.DATETIME
+            FROM
+                FILES F
+            JOIN
+                FILE_CONTENTS C
+            ON
+                C.ID = F.CONTENT_ID
+            WHERE
+                F.USER_ID = ?
+            ORDER BY
+                F.USER_ID,
+                F.DATETIME DESC,
+                F.ID DESC
+            FETCH FIRST ? ROWS ONLY
+            """),
+    FIND_RECENT_FILES_BEFORE("""
+            SELECT
+                F.ID,
+                C.FILE_ID,
+                C.FILE_TYPE,
+                F.FILE_NAME,
+                F.DATETIME
+            FROM
+                FILES F
+            JOIN
+                FILE_CONTENTS C
+            ON
+                C.ID = F.CONTENT_ID
+            WHERE
+                F.USER_ID = ?
+                AND (F.DATETIME, F.ID) < (?, ?)
+            ORDER BY
+                F.USER_ID,
+                F.DATETIME DESC,
+                F.ID DESC
+            FETCH FIRST ? ROWS ONLY
+            """),
+    FIND_LAST_FILE_SEQ("""
+            SELECT
+                SEQ
+            FROM
+                FILES
+            WHERE
+                USER_ID = ?
+            ORDER BY
+                USER_ID,
+                SEQ DESC
+            FETCH FIRST 1 ROWS ONLY
+            """),
+    FIND_FILES_BY_SEQS("""
+            SELECT
+                F.ID,
+                C.FILE_ID,
+                C.FILE_TYPE,
+                F.FILE_NAME,
+                F.SEQ
+            FROM
+                UNNEST(CAST(? AS INT ARRAY)) U(SEQ)
+            JOIN
+                FILES F
+            ON
+                F.USER_ID = ?
+                AND F.SEQ = U.SEQ
+            JOIN
+                FILE_CONTENTS C
+            ON
+                C.ID = F.CONTENT_ID
+            """),
+    MOVE_LAST_FILE_SEQ("""
+            UPDATE
+                FILES
+            SET
+                SEQ = ?
+            WHERE
+                USER_ID = ?
+                AND SEQ = ?
+            """),
+    FIND_FILES_BY_IDS("""
+            SELECT
+                F.ID,
+                C.FILE_ID,
+                C.FILE_TYPE,
+                F.FILE_NAME
+            FROM
+                FILES F
+            JOIN
+                FILE_CONTENTS C
+            ON
+                C.ID = F.CONTENT_ID
+            WHERE
+                F.ID = ANY(?)
+                AND F.USER_ID = ?
+            """),
+    FIND_TAGGED_FILES("""
+            SELECT
+                ID,
+                USER_ID,
+                TAGS
+            FROM
+                FILES
+            WHERE
+                TAGS IS NOT NULL
+            """, true),
+    FIND_FILES_STATE_BY_FILE_UNIQUE_IDS("""
+            SELECT
+                C.FILE_UNIQUE_ID,
+                F.ID,
+                F.TAGS,
+                F.SEQ
+            FROM
+                UNNEST(CAST(? AS VARCHAR ARRAY)) U(FILE_UNIQUE_ID)
+            JOIN
+                FILE_CONTENTS C
+            ON
+                C.FILE_UNIQUE_ID = U.FILE_UNIQUE_ID
+            JOIN
+                FILES F
+            ON
+                F.USER_ID = ?
+                AND F.CONTENT_ID = C.ID
+            """),
+    FIND_FILE_CONTENT_IDS_BY_FILE_UNIQUE_IDS("""
+            SELECT
+                C.FILE_UNIQUE_ID,
+                C.ID
+            FROM
+                UNNEST(CAST(? AS VARCHAR ARRAY)) U(FILE_UNIQUE_ID)
+            JOIN
+                FILE_CONTENTS C
+            ON
+                C.FILE_UNIQUE_ID = U.FILE_UNIQUE_ID
+            """),
+    INSERT_MISSING_FILE_CONTENT("""
+            MERGE INTO
+                FILE_CONTENTS T
+            USING
+                (VALUES (CAST(? AS VARCHAR), CAST(? AS VARCHAR), CAST(? AS TINYINT))) S(FILE_UNIQUE_ID, FILE_ID, FILE_TYPE)
+            ON
+                T.FILE_UNIQUE_ID = S.FILE_UNIQUE_ID
+            WHEN NOT MATCHED THEN
+                INSERT VALUES (NEXT VALUE FOR FILE_CONTENT_IDS, S.FILE_UNIQUE_ID, S.FILE_ID, S.FILE_TYPE)
+            """),
+    NEXT_FILE_IDS("""
+            SELECT
+                NEXT VALUE FOR FILE_IDS
+            FROM
+                SYSTEM_RANGE(1, ?)
+            """),
+    FIND_USER_FILES_BEFORE("""
+            SELECT
+                F.ID,
+                F.USER_ID,
+                F.CONTENT_ID,
+                C.FILE_UNIQUE_ID,
+                C.FILE_ID,
+                C.FILE_TYPE,
+                F.FILE_NAME,
+                F.TAGS,
+                F.DATETIME,
+                F.SEQ
+            FROM
+                FILES F
+            JOIN
+                FILE_CONTENTS C
+            ON
+                C.ID = F.CONTENT_ID
+            WHERE
+                F.USER_ID = ?
+                AND F.SEQ < ?
+            ORDER BY
+                F.USER_ID,
+                F.SEQ DESC
+            FETCH FIRST ? ROWS ONLY
+            """),
+    MERGE_FILE("""
+            MERGE INTO
+                FILES (ID, USER_ID, CONTENT_ID, TAGS, DATETIME, SEQ, FILE_NAME)
+            VALUES
+                (?, ?, ?, ?, ?, ?, ?)
+            """),
+    DELETE_FILE("""
+            DELETE FROM
+                FILES
+            WHERE
+                ID = ?
+            """),
+    COUNT_UNTAGGED_FILES("""
+            SELECT
+                COUNT(*)
+            FROM
+                FILES
+            WHERE
+                USER_ID = ?
+                AND UNTAGGED
+            """),
+    FIND_UNTAGGED_FILES("""
+            SELECT
+                F.ID,
+                F.USER_ID,
+                F.CONTENT_ID,
+                C.FILE_UNIQUE_ID,
+                C.FILE_ID,
+                C.FILE_TYPE,
+                F.FILE_NAME,
+                F.TAGS,
+                F.DATETIME,
+                F.SEQ
+            FROM
+                FILES F
+            JOIN
+                FILE_CONTENTS C
+            ON
+                C.ID = F.CONTENT_ID
+            WHERE
+                F.USER_ID = ?
+                AND F.UNTAGGED
+            ORDER BY
+                F.USER_ID,
+                F.UNTAGGED,
+                F.DATETIME DESC,
+                F.ID DESC
+            FETCH FIRST ? ROWS ONLY
+            """),
+    FIND_UNTAGGED_FILES_BEFORE("""
+            SELECT
+                F.ID,
+                F.USER_ID,
+                F.CONTENT_ID,
+                C.FILE_UNIQUE_ID,
+                C.FILE_ID,
+                C.FILE_TYPE,
+                F.FILE_NAME,
+                F.TAGS,
+                F.DATETIME,
+                F.SEQ
+            FROM
+                FILES F
+            JOIN
+                FILE_CONTENTS C
+            ON
+                C.ID = F.CONTENT_ID
+            WHERE
+                F.USER_ID = ?
+                AND F.UNTAGGED
+                AND F.DATETIME <= ?
+                AND (F.DATETIME < ? OR F.ID < ?)
+            ORDER BY
+                F.USER_ID,
+                F.UNTAGGED,
+                F.DATETIME DESC,
+                F.ID DESC
+            FETCH FIRST ? ROWS ONLY
+            """),
+    ADD_USER_TAG_COUNT("""
+            MERGE INTO
+                USER_TAGS T
+            USING
+                (VALUES (CAST(? AS BIGINT), CAST(? AS VARCHAR), CAST(? AS INT))) S(USER_ID, TAG, DELTA)
+            ON
+                T.USER_ID = S.USER_ID
+                AND T.TAG = S.TAG
+            WHEN MATCHED THEN
+                UPDATE SET COUNT = T.COUNT + S.DELTA
+            WHEN NOT MATCHED THEN
+                INSERT VALUES (S.USER_ID, S.TAG, S.DELTA)
+            """),
+    DELETE_UNUSED_USER_TAGS("""
+            DELETE FROM
+                USER_TAGS
+            WHERE
+                USER_ID = ?
+                AND COUNT <= 0
+            """),
+    COUNT_USER_TAGS("""
+            SELECT
+                COUNT(*)
+            FROM
+                USER_TAGS
+            WHERE
+                USER_ID = ?
+            """),
+    FIND_TOP_USER_TAGS("""
+            SELECT
+                TAG,
+                COUNT
+            FROM
+                USER_TAGS
+            WHERE
+                USER_ID = ?
+            ORDER BY
+                COUNT DESC,
+                TAG
+            OFFSET ? ROWS
+            FETCH NEXT ? ROWS ONLY
+            """),
+    FIND_USER_TAGS_BY_PREFIX("""
+            SELECT
+                TAG
+            FROM
+                USER_TAGS
+            WHERE
+                USER_ID = ?
+                AND TAG >= ?
+                AND TAG < ?
+            ORDER BY
+                COUNT DESC,
+                TAG
+            FETCH FIRST ? ROWS ONLY
+            """),
+    FIND_USER_TAG_COUNTS("""
+            SELECT
+                U.TAG,
+                U.COUNT
+            FROM
+                UNNEST(CAST(? AS VARCHAR ARRAY)) T(TAG)
+            JOIN
+                USER_TAGS U
+            ON
+                U.TAG = T.TAG
+            WHERE
+                U.USER_ID = ?
+            """),
+    FIND_FILE_TAGS_BY_TAG("""
+            SELECT
+                ID,
+                DATETIME
+            FROM
+                FILE_TAGS
+            WHERE
+                USER_ID = ?
+                AND TAG = ?
+            ORDER BY
+                USER_ID,
+                TAG,
+                DATETIME DESC,
+                ID DESC
+            FETCH FIRST ? ROWS ONLY
+            """),
+    FIND_FILTERED_FILE_TAGS_BY_TAG("""
+            SELECT
+                D.ID,
+                D.DATETIME
+            FROM
+                FILE_TAGS D
+            WHERE
+                D.USER_ID = ?
+                AND D.TAG = ?
+                AND (
+                    CAST(? AS INT) = 0
+                    OR (
+                        SELECT
+                            COUNT(DISTINCT G.GROUP_INDEX)
+                        FROM
+                            FILE_TAGS T
+                        JOIN
+                            UNNEST(CAST(? AS VARCHAR ARRAY), CAST(? AS INT ARRAY)) G(TAG, GROUP_INDEX)
+                        ON
+                            T.TAG = G.TAG
+                        WHERE
+                            T.ID = D.ID
+                    ) = ?
+                )
+                AND (
+                    CARDINALITY(CAST(? AS VARCHAR ARRAY)) = 0
+                    OR NOT EXISTS (
+                        SELECT
+                            1
+                        FROM
+                            FILE_TAGS T
+                        WHERE
+                            T.ID = D.ID
+                            AND T.TAG = ANY(?)
+                    )
+                )
+            ORDER BY
+                D.USER_ID,
+                D.TAG,
+                D.DATETIME DESC,
+                D.ID DESC
+            FETCH FIRST ? ROWS ONLY
+            """),
+    INSERT_FILE_TAG("""
+            INSERT INTO
+                FILE_TAGS (ID, TAG, USER_ID, DATETIME)
+            VALUES
+                (?, ?, ?, ?)
+            """),
+    DELETE_FILE_TAG("""
+            DELETE FROM
+                FILE_TAGS
+            WHERE
+                ID = ?
+                AND TAG = ?
+            """),
+    UPDATE_FILE_TAGS_DATETIME("""
+            UPDATE
+                FILE_TAGS
+            SET
+                DATETIME = ?
+            WHERE
+                ID = ?
+            """),
+    FIND_USER_IDS("""
+            SELECT DISTINCT
+                USER_ID
+            FROM
+                FILES
+            """, true),
+    DELETE_USER_FILES("""
+            DELETE FROM
+                FILES
+            WHERE
+                USER_ID = ?
+            """),
+    DELETE_USER_TAGS("""
+            DELETE FROM
+                USER_TAGS
+            WHERE
+                USER_ID = ?
+            """),
+    FIND_LAST_FILE_CONTENT_ID("""
+            SELECT
+                MAX(ID)
+            FROM
+                FILE_CONTENTS
+            """),
+    DELETE_UNUSED_FILE_CONTENTS("""
+            DELETE FROM
+                FILE_CONTENTS C
+            WHERE
+                C.ID > ?
+                AND C.ID <= ?
+                AND NOT EXISTS (
+                    SELECT
+                        1
+                    FROM
+                        FILES F
+                    WHERE
+                        F.CONTENT_ID = C.ID
+                )
+            """),
+    ANALYZE("""
+            ANALYZE
+            """, true),
+    FIND_SHARD_ROUTES("""
+            SELECT
+                USER_ID,
+                SHARD
+            FROM
+                SHARD_ROUTES
+            """, true),
+    MERGE_SHARD_ROUTE("""
+            MERGE INTO
+                SHARD_ROUTES (USER_ID, SHARD)
+            VALUES
+                (?, ?)
+            """),
+    DELETE_SHARD_ROUTE("""
+            DELETE FROM
+                SHARD_ROUTES
+            WHERE
+                USER_ID = ?
+            """);
+
+    public final String sql;
+    public final boolean tableScan;
+
+    Query(String sql) {
+        this(sql, false);
+    }
+
+    Query(String sql, boolean tableScan) {
+        this.sql = sql;
+        this.tableScan = tableScan;
+    }
+}
@@ -0,0 +1,44 @@
+package ru.bestaford.bstorage.database;
+
+import ru.bestaford.bstorage.metrics.Metrics;
+import ru.bestaford.bstorage.search.SearchIndex;
+
+import java.nio.file.Path;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public final class Shard implements AutoCloseable {
+
+    public static final int USER_LOCK_STRIPES = 64;
+
+    public final int index;
+    public final Database database;
+    public final SearchIndex searchIndex;
+    public final LibraryTransfer libraryTransfer;
+    public final ReadWriteLock contentLock;
+    public final Lock[] userLocks;
+
+    public Shard(int index, String jdbcUrl, String user, String password, Path indexPath, int poolSize, Metrics metrics) throws Exception {
+        this.index = index;
+        database = new Database(jdbcUrl, user, password, poolSize, metrics);
+        searchIndex = new SearchIndex(indexPath);
+        contentLock = new ReentrantReadWriteLock();
+        userLocks = new Lock[USER_LOCK_STRIPES];
+        for (int i = 0; i < userLocks.length; i++) {
+            userLocks[i] = new ReentrantLock();
+        }
+        libraryTransfer = new LibraryTransfer(this);
+    }
+
+    public Lock getUserLock(long userId) {
+        return userLocks[Math.floorMod(Long.hashCode(userId), userLocks.length)];
+    }
+
+    @Override
+    public void close() throws Exception {
+        searchIndex.close();
+        database.close();
+    }
+}
@@ -0,0 +1,183 @@
+package ru.bestaford.bstorage.database;
+
+import ru.bestaford.bstorage.metrics.Metrics;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class ShardRouter implements AutoCloseable {
+
+    public static final String DATABASE_FILE_SUFFIX = ".mv.db";
+
+    public final List<Shard> shards;
+    public final List<Shard> retiredShards;
+    public final Map<Long, Integer> userIdToShardMap;
+
+    public ShardRouter(String jdbcUrl, String user, String password, Path indexPath, int shardCount, int poolSize, Metrics metrics) throws Exception {
+        this(jdbcUrl, user, password, indexPath, shardCount, poolSize, metrics, false);
+    }
+
+    public ShardRouter(String jdbcUrl, String user, String password, Path indexPath, int shardCount, int poolSize, Metrics metrics, boolean openRetiredShards) throws Exception {
+        shards = new ArrayList<>(shardCount);
+        retiredShards = new ArrayList<>();
+        userIdToShardMap = new ConcurrentHashMap<>();
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                shards.add(new Shard(i, getJdbcUrl(jdbcUrl, i), user, password, getIndexPath(indexPath, i), poolSize, metrics));
+            }
+            for (int i = shardCount; Files.exists(getDatabaseFile(getJdbcUrl(jdbcUrl, i))); i++) {
+                Shard shard = new Shard(i, getJdbcUrl(jdbcUrl, i), user, password, getIndexPath(indexPath, i), poolSize, metrics);
+                if (openRetiredShards) {
+                    retiredShards.add(shard);
+                    continue;
+                }
+                boolean empty = findUserIds(shard).isEmpty();
+                shard.close();
+                if (!empty) {
+                    throw new IllegalStateException(String.format("Shard %d holds files but only %d shards are configured, run rebalance first", i, shardCount));
+                }
+            }
+            try (DatabaseConnection connection = shards.get(0).database.getConnection()) {
+                PreparedStatement statement = connection.prepareStatement(Query.FIND_SHARD_ROUTES);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        long userId = resultSet.getLong(1);
+                        int index = resultSet.getInt(2);
+                        if (index >= shardCount && !openRetiredShards) {
+                            throw new IllegalStateException(String.format("User %d is routed to shard %d but only %d shards are configured, run rebalance first", userId, index, shardCount));
+                        }
+                        userIdToShardMap.put(userId, index);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
+    }
+
+    public static String getJdbcUrl(String jdbcUrl, int index) {
+        return index == 0 ? jdbcUrl : jdbcUrl + "-" + index;
+    }
+
+    public static Path getDatabaseFile(String jdbcUrl) {
+        String url = jdbcUrl.substring("jdbc:h2:".length());
+        int optionsIndex = url.indexOf(';');
+        return Path.of((optionsIndex < 0 ? url : url.substring(0, optionsIndex)) + DATABASE_FILE_SUFFIX);
+    }
+
+    public static Path getIndexPath(Path indexPath, int index) {
+        return index == 0 ? indexPath : indexPath.resolveSibling(indexPath.getFileName() + "-" + index);
+    }
+
+    public int getDefaultShardIndex(long userId) {
+        return Math.floorMod(Long.hashCode(userId), shards.size());
+    }
+
+    public int getShardIndex(long userId) {
+        Integer index = userIdToShardMap.get(userId);
+        return index == null || index >= shards.size() ? getDefaultShardIndex(userId) : index;
+    }
+
+    public Shard getShard(long userId) {
+        return shards.get(getShardIndex(userId));
+    }
+
+    public Database getDatabase(PreparedStatement statement) {
+        for (Shard shard : shards) {
+            if (shard.database.statementToQueryMap.containsKey(statement)) {
+                return shard.database;
+            }
+        }
+        return null;
+    }
+
+    public void setRoute(long userId, int index) throws Exception {
+        try (DatabaseConnection connection = shards.get(0).database.getConnection()) {
+            PreparedStatement statement;
+            if (index == getDefaultShardIndex(userId)) {
+                statement = connection.prepareStatement(Query.DELETE_SHARD_ROUTE);
+                statement.setLong(1, userId);
+            } else {
+                statement = connection.prepareStatement(Query.MERGE_SHARD_ROUTE);
+                statement.setLong(1, userId);
+                statement.setInt(2, index);
+            }
+            statement.executeUpdate();
+        }
+        if (index == getDefaultShardIndex(userId)) {
+            userIdToShardMap.remove(userId);
+        } else {
+            userIdToShardMap.put(userId, index);
+        }
+    }
+
+    public int moveUser(long userId, Shard source, Shard target) throws Exception {
+        int count = 0;
+        if (source != target) {
+            Path path = Files.createTempFile("bstorage-move-", LibraryTransfer.FILE_EXTENSION);
+            try {
+                try (OutputStream outputStream = Files.newOutputStream(path)) {
+                    source.libraryTransfer.exportFiles(userId, outputStream);
+                }
+                try (InputStream inputStream = Files.newInputStream(path)) {
+                    count = target.libraryTransfer.importFiles(userId, inputStream);
+                }
+            } finally {
+                Files.deleteIfExists(path);
+            }
+        }
+        setRoute(userId, target.index);
+        if (source != target) {
+            source.libraryTransfer.deleteFiles(userId);
+        }
+        return count;
+    }
+
+    public static List<Long> findUserIds(Shard shard) throws Exception {
+        List<Long> userIds = new ArrayList<>();
+        try (DatabaseConnection connection = shard.database.getConnection()) {
+            PreparedStatement statement = connection.prepareStatement(Query.FIND_USER_IDS);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    userIds.add(resultSet.getLong(1));
+                }
+            }
+        }
+        return userIds;
+    }
+
+    public int rebalance() throws Exception {
+        int movedCount = 0;
+        List<Shard> sources = new ArrayList<>(shards);
+        sources.addAll(retiredShards);
+        for (Shard shard : sources) {
+            for (long userId : findUserIds(shard)) {
+                Shard target = getShard(userId);
+                if (target != shard) {
+                    moveUser(userId, shard, target);
+                    movedCount++;
+                }
+            }
+        }
+        return movedCount;
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (Shard shard : shards) {
+            shard.close();
+        }
+        for (Shard shard : retiredShards) {
+            shard.close();
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package ru.bestaford.bstorage.dispatch;
+
+import com.pengrad.telegrambot.Callback;
+import com.pengrad.telegrambot.model.ResponseParameters;
+import com.pengrad.telegrambot.request.AnswerCallbackQuery;
+import com.pengrad.telegrambot.request.AnswerInlineQuery;
+import com.pengrad.telegrambot.request.BaseRequest;
+import com.pengrad.telegrambot.request.EditMessageText;
+import com.pengrad.telegrambot.response.BaseResponse;
+import ru.bestaford.bstorage.BStorageBot;
+import ru.bestaford.bstorage.cache.ExpiringCache;
+import ru.bestaford.bstorage.metrics.Timer;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+public final class RequestScheduler {
+
+    public static final int MAX_ATTEMPTS = 5;
+    public static final long RETRY_DELAY_MILLIS = 1000;
+    public static final int CHAT_BUCKET_CACHE_SIZE = 100_000;
+    public static final int CHAT_BUCKET_TTL_MINUTES = 10;
+
+    public final BStorageBot bot;
+    public final TokenBucket globalBucket;
+    public final ExpiringCache<String, TokenBucket> chatBucketCache;
+    public final double chatTokensPerSecond;
+    public final double chatCapacity;
+    public final PriorityQueue<Task<?, ?>> answerQueue;
+    public final PriorityQueue<Task<?, ?>> messageQueue;
+    public final Map<String, Deque<Task<?, ?>>> chatQueueMap;
+    public final ScheduledExecutorService delayExecutor;
+    public final Map<String, Task<?, ?>> pendingEditMap;
+    public final Thread thread;
+
+    private final Lock lock;
+    private final Condition available;
+    private final AtomicLong sequence;
+    private volatile boolean running;
+
+    public RequestScheduler(BStorageBot bot, double globalTokensPerSecond, double chatTokensPerSecond, double chatCapacity) {
+        this.bot = bot;
+        this.chatTokensPerSecond = chatTokensPerSecond;
+        this.chatCapacity = chatCapacity;
+        globalBucket = new TokenBucket(globalTokensPerSecond, globalTokensPerSecond);
+        chatBucketCache = new ExpiringCache<>(CHAT_BUCKET_CACHE_SIZE, CHAT_BUCKET_TTL_MINUTES, TimeUnit.MINUTES, true);
+        answerQueue = new PriorityQueue<>();
+        messageQueue = new PriorityQueue<>();
+        chatQueueMap = new HashMap<>();
+        delayExecutor = Executors.newSingleThreadScheduledExecutor();
+        pendingEditMap = new HashMap<>();
+        thread = new Thread(this::run, "request-scheduler");
+        lock = new ReentrantLock();
+        available = lock.newCondition();
+        sequence = new AtomicLong();
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    public <T extends BaseRequest<T, R>, R extends BaseResponse> void submit(T request) {
+        boolean answer = isAnswer(request);
+        Task<T, R> task = new Task<>(request, answer ? Priority.HIGH : Priority.NORMAL, !answer, sequence.incrementAndGet(), getChatKey(request), getEditKey(request));
+        if (task.editKey != null) {
+            synchronized (pendingEditMap) {
+                @SuppressWarnings("unchecked")
+                Task<T, R> pendingTask = (Task<T, R>) pendingEditMap.get(task.editKey);
+                if (pendingTask != null) {
+                    pendingTask.request = request;
+                    return;
+                }
+                pendingEditMap.put(task.editKey, task);
+            }
+        }
+        if (task.chatKey != null) {
+            lock.lock();
+            try {
+                Deque<Task<?, ?>> chatQueue = chatQueueMap.get(task.chatKey);
+                if (chatQueue != null) {
+                    chatQueue.add(task);
+                    return;
+                }
+                chatQueueMap.put(task.chatKey, new ArrayDeque<>());
+            } finally {
+                lock.unlock();
+            }
+        }
+        schedule(task);
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            int size = answerQueue.size() + messageQueue.size();
+            for (Deque<Task<?, ?>> chatQueue : chatQueueMap.values()) {
+                size += chatQueue.size();
+            }
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Task<?, ?>> clear() {
+        List<Task<?, ?>> tasks = new ArrayList<>();
+        lock.lock();
+        try {
+            tasks.addAll(answerQueue);
+            tasks.addAll(messageQueue);
+            for (Deque<Task<?, ?>> chatQueue : chatQueueMap.values()) {
+                tasks.addAll(chatQueue);
+            }
+            answerQueue.clear();
+            messageQueue.clear();
+            chatQueueMap.clear();
+        } finally {
+            lock.unlock();
+        }
+        synchronized (pendingEditMap) {
+            pendingEditMap.clear();
+        }
+        return tasks;
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        thread.interrupt();
+        thread.join();
+        delayExecutor.shutdownNow();
+        for (Task<?, ?> task : clear()) {
+            task.send();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            Task<?, ?> task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            send(task);
+        }
+    }
+
+    private Task<?, ?> take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                Task<?, ?> answerTask = answerQueue.peek();
+                Task<?, ?> messageTask = messageQueue.peek();
+                long wait = 0;
+                if (messageTask != null && (answerTask == null || messageTask.compareTo(answerTask) < 0)) {
+                    wait = globalBucket.tryAcquire();
+                    if (wait == 0) {
+                        return messageQueue.remove();
+                    }
+                }
+                if (answerTask != null) {
+                    return answerQueue.remove();
+                }
+                if (wait > 0) {
+                    available.awaitNanos(wait);
+                } else {
+                    available.await();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void schedule(Task<?, ?> task) {
+        if (task.chatKey != null) {
+            TokenBucket chatBucket = chatBucketCache.get(task.chatKey);
+            if (chatBucket == null) {
+                chatBucket = new TokenBucket(chatTokensPerSecond, chatCapacity);
+                chatBucketCache.put(task.chatKey, chatBucket);
+            }
+            long wait = chatBucket.tryAcquire();
+            if (wait > 0) {
+                delay(task, wait);
+                return;
+            }
+        }
+        lock.lock();
+        try {
+            (task.globalLimit ? messageQueue : answerQueue).add(task);
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void complete(Task<?, ?> task) {
+        if (task.chatKey == null) {
+            return;
+        }
+        Task<?, ?> nextTask;
+        lock.lock();
+        try {
+            Deque<Task<?, ?>> chatQueue = chatQueueMap.get(task.chatKey);
+            if (chatQueue == null) {
+                return;
+            }
+            nextTask = chatQueue.poll();
+            if (nextTask == null) {
+                chatQueueMap.remove(task.chatKey);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        schedule(nextTask);
+    }
+
+    private void send(Task<?, ?> task) {
+        if (task.editKey != null) {
+            synchronized (pendingEditMap) {
+                pendingEditMap.remove(task.editKey, task);
+            }
+        }
+        task.send();
+    }
+
+    private void delay(Task<?, ?> task, long nanos) {
+        try {
+            delayExecutor.schedule(() -> schedule(task), nanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            bot.logger.warn("Dropped delayed request on shutdown");
+        }
+    }
+
+    private static boolean isAnswer(BaseRequest<?, ?> request) {
+        return request instanceof AnswerInlineQuery || request instanceof AnswerCallbackQuery;
+    }
+
+    private static String getChatKey(BaseRequest<?, ?> request) {
+        Object chatId = request.getParameters().get("chat_id");
+        return chatId == null ? null : chatId.toString();
+    }
+
+    private static String getEditKey(BaseRequest<?, ?> request) {
+        if (request instanceof EditMessageText) {
+            Map<String, Object> parameters = request.getParameters();
+            return parameters.get("chat_id") + ":" + parameters.get("message_id") + ":" + parameters.get("inline_message_id");
+        }
+        return null;
+    }
+
+    public enum Priority {
+        HIGH(0),
+        NORMAL(1000);
+
+        public final long agingNanos;
+
+        Priority(long agingMillis) {
+            agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMillis);
+        }
+    }
+
+    public final class Task<T extends BaseRequest<T, R>, R extends BaseResponse> implements Comparable<Task<?, ?>> {
+
+        public final Priority priority;
+        public final boolean globalLimit;
+        public final long sequence;
+        public final long deadline;
+        public final String chatKey;
+        public final String editKey;
+        public final Timer timer;
+
+        private volatile T request;
+        private int attempts;
+
+        private Task(T request, Priority priority, boolean globalLimit, long sequence, String chatKey, String editKey) {
+            this.request = request;
+            this.priority = priority;
+            this.globalLimit = globalLimit;
+            this.sequence = sequence;
+            this.chatKey = chatKey;
+            this.editKey = editKey;
+            deadline = System.nanoTime() + priority.agingNanos;
+            timer = bot.getRequestTimer(request);
+        }
+
+        @Override
+        public int compareTo(Task<?, ?> other) {
+            int result = Long.signum(deadline - other.deadline);
+            return result == 0 ? Long.compare(sequence, other.sequence) : result;
+        }
+
+        private void send() {
+            attempts++;
+            if (bot.logger.isDebugEnabled()) {
+                bot.logger.debug(request.toString());
+            }
+            long start = System.nanoTime();
+            bot.telegramBot.execute(request, new Callback<T, R>() {
+                @Override
+                public void onResponse(T request, R response) {
+                    if (bot.logger.isDebugEnabled()) {
+                        bot.logger.debug(response.toString());
+                    }
+                    if (response.isOk()) {
+                        timer.recordSince(start);
+                    } else {
+                        timer.recordError(start);
+                    }
+                    if (!response.isOk() && response.errorCode() == 429) {
+                        ResponseParameters parameters = response.parameters();
+                        Integer retryAfter = parameters == null ? null : parameters.retryAfter();
+                        retry(retryAfter == null ? null : TimeUnit.SECONDS.toMillis(retryAfter), response.description());
+                    } else {
+                        complete(Task.this);
+                    }
+                }
+
+                @Override
+                public void onFailure(T request, IOException e) {
+                    timer.recordError(start);
+                    bot.logger.warn("Failed to execute request", e);
+                    retry(null, e.getMessage());
+                }
+            });
+        }
+
+        private void retry(Long delayMillis, String reason) {
+            if (attempts >= MAX_ATTEMPTS) {
+                bot.logger.error(String.format("Giving up on %s after %d attempts: %s", request.getMethod(), attempts, reason));
+                complete(this);
+                return;
+            }
+            if (editKey != null) {
+                synchronized (pendingEditMap) {
+                    if (pendingEditMap.putIfAbsent(editKey, this) != null) {
+                        complete(this);
+                        return;
+                    }
+                }
+            }
+            long delay = delayMillis == null ? RETRY_DELAY_MILLIS << (attempts - 1) : delayMillis;
+            delay(this, TimeUnit.MILLISECONDS.toNanos(delay));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package ru.bestaford.bstorage.dispatch;
+
+public final class TokenBucket {
+
+    public final double tokensPerNano;
+    public final double capacity;
+
+    private double tokens;
+    private long updatedAt;
+
+    public TokenBucket(double tokensPerSecond, double capacity) {
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000d;
+        this.capacity = capacity;
+        tokens = capacity;
+        updatedAt = System.nanoTime();
+    }
+
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - updatedAt) * tokensPerNano);
+        updatedAt = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+}
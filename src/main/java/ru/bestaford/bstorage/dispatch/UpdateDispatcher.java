@@ -0,0 +1,129 @@
+package ru.bestaford.bstorage.dispatch;
+
+import com.pengrad.telegrambot.model.*;
+import ru.bestaford.bstorage.BStorageBot;
+import ru.bestaford.bstorage.metrics.Timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public final class UpdateDispatcher {
+
+    private static final Update POISON = new Update();
+
+    public final BStorageBot bot;
+    public final List<BlockingQueue<Update>> queues;
+    public final List<Thread> workers;
+    public final Timer messageTimer;
+    public final Timer inlineQueryTimer;
+    public final Timer callbackQueryTimer;
+    public final Timer otherTimer;
+
+    public UpdateDispatcher(BStorageBot bot, int stripeCount, int queueCapacity) {
+        this.bot = bot;
+        queues = new ArrayList<>(stripeCount);
+        workers = new ArrayList<>(stripeCount);
+        messageTimer = getTimer("message");
+        inlineQueryTimer = getTimer("inline_query");
+        callbackQueryTimer = getTimer("callback_query");
+        otherTimer = getTimer("other");
+        for (int i = 0; i < stripeCount; i++) {
+            BlockingQueue<Update> queue = new ArrayBlockingQueue<>(queueCapacity);
+            Thread worker = new Thread(() -> work(queue), "update-worker-" + i);
+            queues.add(queue);
+            workers.add(worker);
+        }
+    }
+
+    public void start() {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    public void dispatch(Update update) throws InterruptedException {
+        getQueue(update).put(update);
+    }
+
+    public boolean offer(Update update) {
+        return getQueue(update).offer(update);
+    }
+
+    private BlockingQueue<Update> getQueue(Update update) {
+        return queues.get(Math.floorMod(Long.hashCode(getUserId(update)), queues.size()));
+    }
+
+    public int size() {
+        int size = 0;
+        for (BlockingQueue<Update> queue : queues) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    public void stop() throws InterruptedException {
+        for (BlockingQueue<Update> queue : queues) {
+            queue.put(POISON);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private void work(BlockingQueue<Update> queue) {
+        while (true) {
+            Update update;
+            try {
+                update = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (update == POISON) {
+                return;
+            }
+            if (bot.logger.isDebugEnabled()) {
+                bot.logger.debug(update.toString());
+            }
+            Timer timer = getTimer(update);
+            long start = System.nanoTime();
+            try {
+                bot.processUpdate(update);
+                timer.recordSince(start);
+            } catch (Exception e) {
+                timer.recordError(start);
+                bot.logger.error("Failed to process update", e);
+            }
+        }
+    }
+
+    private Timer getTimer(String type) {
+        return bot.metrics.timer("update_seconds", "Update processing latency", "type", type);
+    }
+
+    private Timer getTimer(Update update) {
+        if (update.message() != null) {
+            return messageTimer;
+        }
+        if (update.inlineQuery() != null) {
+            return inlineQueryTimer;
+        }
+        if (update.callbackQuery() != null) {
+            return callbackQueryTimer;
+        }
+        return otherTimer;
+    }
+
+    public static long getUserId(Update update) {
+        User user = null;
+        if (update.callbackQuery() != null) {
+            user = update.callbackQuery().from();
+        } else if (update.inlineQuery() != null) {
+            user = update.inlineQuery().from();
+        } else if (update.message() != null) {
+            user = update.message().from();
+        }
+        return user == null ? 0 : user.id();
+    }
+}
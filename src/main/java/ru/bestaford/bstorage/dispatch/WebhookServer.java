@@ -0,0 +1,73 @@
+package ru.bestaford.bstorage.dispatch;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Update;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ru.bestaford.bstorage.BStorageBot;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public final class WebhookServer {
+
+    public static final String PATH = "/";
+    public static final String SECRET_TOKEN_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    public final BStorageBot bot;
+    public final String secretToken;
+    public final HttpServer server;
+    public final ExecutorService executor;
+
+    public WebhookServer(BStorageBot bot, InetSocketAddress address, String secretToken, int threadCount) throws IOException {
+        if (secretToken == null && !address.getAddress().isLoopbackAddress()) {
+            throw new IllegalArgumentException("A secret token is required to receive updates on " + address);
+        }
+        this.bot = bot;
+        this.secretToken = secretToken;
+        server = HttpServer.create(address, 0);
+        executor = Executors.newFixedThreadPool(threadCount);
+        server.setExecutor(executor);
+        server.createContext(PATH, this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (secretToken != null && !secretToken.equals(exchange.getRequestHeaders().getFirst(SECRET_TOKEN_HEADER))) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            Update update;
+            try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+                update = BotUtils.parseUpdate(reader);
+            } catch (RuntimeException e) {
+                bot.logger.warn("Failed to parse webhook update", e);
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            if (update == null || bot.dispatcher.offer(update)) {
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                exchange.sendResponseHeaders(503, -1);
+            }
+        }
+    }
+}
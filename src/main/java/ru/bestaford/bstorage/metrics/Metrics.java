@@ -0,0 +1,80 @@
+package ru.bestaford.bstorage.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+public final class Metrics {
+
+    public static final String PREFIX = "bstorage_";
+
+    public final Map<String, Family> familyMap;
+
+    public Metrics() {
+        familyMap = new ConcurrentSkipListMap<>();
+    }
+
+    public Timer timer(String name, String help, String label, String value) {
+        return family(name, help, label).timerMap.computeIfAbsent(value, v -> new Timer());
+    }
+
+    public void gauge(String name, String help, String label, String value, DoubleSupplier supplier) {
+        family(name, help, label).gaugeMap.put(value, supplier);
+    }
+
+    private Family family(String name, String help, String label) {
+        return familyMap.computeIfAbsent(PREFIX + name, n -> new Family(help, label));
+    }
+
+    public String toPrometheusText() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Family> entry : familyMap.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            text.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            if (!family.timerMap.isEmpty()) {
+                text.append("# TYPE ").append(name).append(" histogram\n");
+                for (Map.Entry<String, Timer> timerEntry : family.timerMap.entrySet()) {
+                    String labels = family.label + "=\"" + timerEntry.getKey() + "\"";
+                    Timer timer = timerEntry.getValue();
+                    long cumulative = 0;
+                    for (int i = 0; i < Timer.BUCKETS_SECONDS.length; i++) {
+                        cumulative += timer.buckets[i].sum();
+                        text.append(name).append("_bucket{").append(labels).append(",le=\"").append(Timer.BUCKETS_SECONDS[i]).append("\"} ").append(cumulative).append('\n');
+                    }
+                    long count = timer.count.sum();
+                    text.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(count).append('\n');
+                    text.append(name).append("_sum{").append(labels).append("} ").append((double) timer.sumNanos.sum() / TimeUnit.SECONDS.toNanos(1)).append('\n');
+                    text.append(name).append("_count{").append(labels).append("} ").append(count).append('\n');
+                }
+                text.append("# TYPE ").append(name).append("_errors_total counter\n");
+                for (Map.Entry<String, Timer> timerEntry : family.timerMap.entrySet()) {
+                    text.append(name).append("_errors_total{").append(family.label).append("=\"").append(timerEntry.getKey()).append("\"} ").append(timerEntry.getValue().errors.sum()).append('\n');
+                }
+            }
+            if (!family.gaugeMap.isEmpty()) {
+                text.append("# TYPE ").append(name).append(" gauge\n");
+                for (Map.Entry<String, DoubleSupplier> gaugeEntry : family.gaugeMap.entrySet()) {
+                    text.append(name).append('{').append(family.label).append("=\"").append(gaugeEntry.getKey()).append("\"} ").append(gaugeEntry.getValue().getAsDouble()).append('\n');
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    public static final class Family {
+
+        public final String help;
+        public final String label;
+        public final Map<String, Timer> timerMap;
+        public final Map<String, DoubleSupplier> gaugeMap;
+
+        private Family(String help, String label) {
+            this.help = help;
+            this.label = label;
+            timerMap = new ConcurrentSkipListMap<>();
+            gaugeMap = new ConcurrentSkipListMap<>();
+        }
+    }
+}
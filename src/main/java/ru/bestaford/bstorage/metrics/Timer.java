@@ -0,0 +1,52 @@
+package ru.bestaford.bstorage.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Timer {
+
+    public static final double[] BUCKETS_SECONDS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static final long[] BUCKETS_NANOS = new long[BUCKETS_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS_SECONDS.length; i++) {
+            BUCKETS_NANOS[i] = (long) (BUCKETS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    public final LongAdder count;
+    public final LongAdder errors;
+    public final LongAdder sumNanos;
+    public final LongAdder[] buckets;
+
+    public Timer() {
+        count = new LongAdder();
+        errors = new LongAdder();
+        sumNanos = new LongAdder();
+        buckets = new LongAdder[BUCKETS_NANOS.length];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        count.increment();
+        sumNanos.add(nanos);
+        for (int i = 0; i < BUCKETS_NANOS.length; i++) {
+            if (nanos <= BUCKETS_NANOS[i]) {
+                buckets[i].increment();
+                return;
+            }
+        }
+    }
+
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public void recordError(long startNanos) {
+        errors.increment();
+        recordSince(startNanos);
+    }
+}
@@ -1,14 +1,53 @@
 package ru.bestaford.bstorage.model;
 
-public record File(String id, String fileName, Type type) {
+import ru.bestaford.bstorage.database.RowMapper;
+
+import java.sql.Timestamp;
+
+public record File(long rowId, long userId, long contentId, String uniqueId, String id, Type type, String fileName, String tags, Timestamp dateTime, int seq) {
+
+    public static final RowMapper<File> MAPPER = resultSet -> new File(
+            resultSet.getLong(1),
+            resultSet.getLong(2),
+            resultSet.getLong(3),
+            resultSet.getString(4),
+            resultSet.getString(5),
+            Type.fromCode(resultSet.getByte(6)),
+            resultSet.getString(7),
+            resultSet.getString(8),
+            resultSet.getTimestamp(9),
+            resultSet.getInt(10)
+    );
+
+    public boolean untagged() {
+        return tags == null;
+    }
 
     public enum Type {
-        PHOTO,
-        VIDEO,
-        DOCUMENT,
-        AUDIO,
-        GIF,
-        STICKER,
-        VOICE
+        PHOTO(0),
+        VIDEO(1),
+        DOCUMENT(2),
+        AUDIO(3),
+        GIF(4),
+        STICKER(5),
+        VOICE(6);
+
+        private static final Type[] CODE_TO_TYPE = new Type[values().length];
+
+        static {
+            for (Type type : values()) {
+                CODE_TO_TYPE[type.code] = type;
+            }
+        }
+
+        public final byte code;
+
+        Type(int code) {
+            this.code = (byte) code;
+        }
+
+        public static Type fromCode(byte code) {
+            return CODE_TO_TYPE[code];
+        }
     }
-}
\ No newline at end of file
+}
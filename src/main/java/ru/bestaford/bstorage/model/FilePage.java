@@ -0,0 +1,8 @@
+package ru.bestaford.bstorage.model;
+
+import com.pengrad.telegrambot.model.request.InlineQueryResult;
+
+import java.util.List;
+
+public record FilePage(List<InlineQueryResult<?>> results, String nextOffset, boolean cacheable) {
+}
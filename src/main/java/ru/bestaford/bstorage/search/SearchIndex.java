@@ -0,0 +1,156 @@
+package ru.bestaford.bstorage.search;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.*;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public final class SearchIndex implements AutoCloseable {
+
+    public static final String FIELD_ID = "ID";
+    public static final String FIELD_USER_ID = "USER_ID";
+    public static final String FIELD_TAGS = "TAGS";
+    public static final String COMMIT_CLEAN = "clean";
+    public static final String COMMIT_VERSION = "version";
+    public static final String VERSION = "2";
+    public static final double FORCE_MERGE_MB_PER_SECOND = 10;
+
+    public final Directory directory;
+    public final Analyzer analyzer;
+    public final IndexWriter writer;
+    public final SearcherManager searcherManager;
+    public final boolean clean;
+
+    public SearchIndex(Path path) throws IOException {
+        directory = FSDirectory.open(path);
+        analyzer = new StandardAnalyzer();
+        ConcurrentMergeScheduler mergeScheduler = new ConcurrentMergeScheduler();
+        mergeScheduler.setForceMergeMBPerSec(FORCE_MERGE_MB_PER_SECOND);
+        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer).setMergeScheduler(mergeScheduler));
+        searcherManager = new SearcherManager(writer, null);
+        clean = isClean(writer.getLiveCommitData());
+        commit(false);
+    }
+
+    public void update(long id, long userId, String tags) throws IOException {
+        if (tags == null || tags.isBlank()) {
+            delete(id);
+            return;
+        }
+        writer.updateDocument(new Term(FIELD_ID, Long.toString(id)), createDocument(id, userId, tags));
+    }
+
+    public void add(long id, long userId, String tags) throws IOException {
+        if (tags == null || tags.isBlank()) {
+            return;
+        }
+        writer.addDocument(createDocument(id, userId, tags));
+    }
+
+    public void delete(long id) throws IOException {
+        writer.deleteDocuments(new Term(FIELD_ID, Long.toString(id)));
+    }
+
+    public void deleteUser(long userId) throws IOException {
+        writer.deleteDocuments(new Term(FIELD_USER_ID, Long.toString(userId)));
+    }
+
+    public void refresh() throws IOException {
+        searcherManager.maybeRefreshBlocking();
+    }
+
+    public long mergeDeletes() throws IOException {
+        long size = size();
+        writer.forceMergeDeletes(true);
+        refresh();
+        commit(false);
+        return size - size();
+    }
+
+    public long size() throws IOException {
+        long size = 0;
+        for (String file : directory.listAll()) {
+            try {
+                size += directory.fileLength(file);
+            } catch (NoSuchFileException | FileNotFoundException ignored) {
+            }
+        }
+        return size;
+    }
+
+    public void clear() throws IOException {
+        writer.deleteAll();
+    }
+
+    public List<Long> search(long userId, String text, int offset, int count) throws IOException, ParseException {
+        Query query = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term(FIELD_USER_ID, Long.toString(userId))), BooleanClause.Occur.FILTER)
+                .add(new QueryParser(FIELD_TAGS, analyzer).parse(text), BooleanClause.Occur.MUST)
+                .build();
+        List<Long> ids = new ArrayList<>(count);
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            ScoreDoc[] scoreDocs = searcher.search(query, offset + count).scoreDocs;
+            for (int i = offset; i < scoreDocs.length; i++) {
+                ScoreDoc scoreDoc = scoreDocs[i];
+                ids.add(Long.parseLong(searcher.doc(scoreDoc.doc, Set.of(FIELD_ID)).get(FIELD_ID)));
+            }
+        } finally {
+            searcherManager.release(searcher);
+        }
+        return ids;
+    }
+
+    public void commit(boolean clean) throws IOException {
+        writer.setLiveCommitData(Map.of(COMMIT_CLEAN, Boolean.toString(clean), COMMIT_VERSION, VERSION).entrySet());
+        writer.commit();
+    }
+
+    private static Document createDocument(long id, long userId, String tags) {
+        Document document = new Document();
+        document.add(new StringField(FIELD_ID, Long.toString(id), Field.Store.YES));
+        document.add(new StringField(FIELD_USER_ID, Long.toString(userId), Field.Store.NO));
+        document.add(new TextField(FIELD_TAGS, tags, Field.Store.NO));
+        return document;
+    }
+
+    private static boolean isClean(Iterable<Map.Entry<String, String>> commitData) {
+        boolean clean = false;
+        String version = null;
+        if (commitData != null) {
+            for (Map.Entry<String, String> entry : commitData) {
+                if (entry.getKey().equals(COMMIT_CLEAN)) {
+                    clean = Boolean.parseBoolean(entry.getValue());
+                } else if (entry.getKey().equals(COMMIT_VERSION)) {
+                    version = entry.getValue();
+                }
+            }
+        }
+        return clean && VERSION.equals(version);
+    }
+
+    @Override
+    public void close() throws IOException {
+        commit(true);
+        searcherManager.close();
+        writer.close();
+        directory.close();
+    }
+}
@@ -0,0 +1,33 @@
+package ru.bestaford.bstorage.search;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+public record TagFilter(List<Set<String>> groups, Set<String> excludedTags, String prefix) {
+
+    public static final Pattern TOKEN_PATTERN = Pattern.compile("-?[\\p{L}\\p{N}_]+(\\|[\\p{L}\\p{N}_]+)*");
+
+    public static TagFilter parse(String text) {
+        String[] tokens = text.trim().split("\\s+");
+        List<Set<String>> groups = new ArrayList<>();
+        Set<String> excludedTags = new HashSet<>();
+        String prefix = null;
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i];
+            if (!TOKEN_PATTERN.matcher(token).matches()) {
+                return null;
+            }
+            if (token.startsWith("-")) {
+                excludedTags.addAll(Arrays.asList(token.substring(1).split("\\|")));
+            } else if (i == tokens.length - 1 && !token.contains("|")) {
+                prefix = token;
+            } else {
+                groups.add(new LinkedHashSet<>(Arrays.asList(token.split("\\|"))));
+            }
+        }
+        if (groups.isEmpty() && prefix == null) {
+            return null;
+        }
+        return new TagFilter(groups, excludedTags, prefix);
+    }
+}
@@ -0,0 +1 @@
+CALL FTL_DROP_ALL();
\ No newline at end of file
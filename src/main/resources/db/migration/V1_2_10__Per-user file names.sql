@@ -0,0 +1,18 @@
+ALTER TABLE
+    FILES
+ADD
+    FILE_NAME VARCHAR;
+
+MERGE INTO
+    FILES F
+USING
+    (SELECT ID, FILE_NAME FROM FILE_CONTENTS WHERE FILE_NAME IS NOT NULL) S
+ON
+    F.CONTENT_ID = S.ID
+WHEN MATCHED THEN
+    UPDATE SET FILE_NAME = S.FILE_NAME;
+
+ALTER TABLE
+    FILE_CONTENTS
+DROP COLUMN
+    FILE_NAME;
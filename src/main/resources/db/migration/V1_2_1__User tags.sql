@@ -0,0 +1,44 @@
+CREATE TABLE IF NOT EXISTS USER_TAGS (
+    USER_ID BIGINT NOT NULL,
+    TAG VARCHAR NOT NULL,
+    COUNT INT NOT NULL,
+    PRIMARY KEY (USER_ID, TAG)
+);
+
+CREATE INDEX IF NOT EXISTS USER_TAGS_USER_ID_COUNT ON USER_TAGS (USER_ID, COUNT DESC, TAG);
+
+INSERT INTO
+    USER_TAGS
+WITH RECURSIVE SPLIT_TAGS(ID, USER_ID, TAG, REST) AS (
+    SELECT
+        ID,
+        USER_ID,
+        CAST(NULL AS VARCHAR),
+        TRIM(TAGS) || ' '
+    FROM
+        FILES
+    WHERE
+        TAGS IS NOT NULL
+    UNION ALL
+    SELECT
+        ID,
+        USER_ID,
+        SUBSTRING(REST FROM 1 FOR POSITION(' ' IN REST) - 1),
+        TRIM(LEADING FROM SUBSTRING(REST FROM POSITION(' ' IN REST) + 1))
+    FROM
+        SPLIT_TAGS
+    WHERE
+        REST <> ''
+)
+SELECT
+    USER_ID,
+    TAG,
+    COUNT(DISTINCT ID)
+FROM
+    SPLIT_TAGS
+WHERE
+    TAG IS NOT NULL
+    AND TAG <> ''
+GROUP BY
+    USER_ID,
+    TAG;
@@ -0,0 +1,8 @@
+ALTER TABLE
+    FILES
+ADD
+    UNTAGGED BOOLEAN GENERATED ALWAYS AS (TAGS IS NULL);
+
+CREATE INDEX IF NOT EXISTS FILES_USER_ID_DATETIME ON FILES (USER_ID, DATETIME DESC, ID DESC);
+
+CREATE INDEX IF NOT EXISTS FILES_USER_ID_UNTAGGED_DATETIME ON FILES (USER_ID, UNTAGGED, DATETIME DESC);
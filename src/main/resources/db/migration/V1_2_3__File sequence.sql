@@ -0,0 +1,20 @@
+ALTER TABLE
+    FILES
+ADD
+    SEQ INT;
+
+MERGE INTO
+    FILES F
+USING
+    (SELECT ID, ROW_NUMBER() OVER (PARTITION BY USER_ID ORDER BY DATETIME, ID) - 1 AS SEQ FROM FILES) S
+ON
+    F.ID = S.ID
+WHEN MATCHED THEN
+    UPDATE SET SEQ = S.SEQ;
+
+ALTER TABLE
+    FILES
+ALTER COLUMN
+    SEQ SET NOT NULL;
+
+CREATE UNIQUE INDEX IF NOT EXISTS FILES_USER_ID_SEQ ON FILES (USER_ID, SEQ);
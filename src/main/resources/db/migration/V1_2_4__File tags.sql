@@ -0,0 +1,46 @@
+CREATE TABLE IF NOT EXISTS FILE_TAGS (
+    ID VARCHAR NOT NULL,
+    TAG VARCHAR NOT NULL,
+    USER_ID BIGINT NOT NULL,
+    DATETIME TIMESTAMP NOT NULL,
+    PRIMARY KEY (ID, TAG),
+    FOREIGN KEY (ID) REFERENCES FILES (ID) ON DELETE CASCADE
+);
+
+CREATE INDEX IF NOT EXISTS FILE_TAGS_USER_ID_TAG_DATETIME ON FILE_TAGS (USER_ID, TAG, DATETIME DESC, ID DESC);
+
+INSERT INTO
+    FILE_TAGS
+WITH RECURSIVE SPLIT_TAGS(ID, USER_ID, DATETIME, TAG, REST) AS (
+    SELECT
+        ID,
+        USER_ID,
+        DATETIME,
+        CAST(NULL AS VARCHAR),
+        TRIM(TAGS) || ' '
+    FROM
+        FILES
+    WHERE
+        TAGS IS NOT NULL
+    UNION ALL
+    SELECT
+        ID,
+        USER_ID,
+        DATETIME,
+        SUBSTRING(REST FROM 1 FOR POSITION(' ' IN REST) - 1),
+        TRIM(LEADING FROM SUBSTRING(REST FROM POSITION(' ' IN REST) + 1))
+    FROM
+        SPLIT_TAGS
+    WHERE
+        REST <> ''
+)
+SELECT DISTINCT
+    ID,
+    TAG,
+    USER_ID,
+    DATETIME
+FROM
+    SPLIT_TAGS
+WHERE
+    TAG IS NOT NULL
+    AND TAG <> '';
@@ -0,0 +1,83 @@
+CREATE SEQUENCE IF NOT EXISTS FILE_IDS;
+
+CREATE TABLE FILES_NEW (
+    ID BIGINT PRIMARY KEY,
+    USER_ID BIGINT NOT NULL,
+    FILE_UNIQUE_ID VARCHAR NOT NULL,
+    FILE_ID VARCHAR NOT NULL,
+    FILE_TYPE TINYINT NOT NULL,
+    TAGS VARCHAR,
+    DATETIME TIMESTAMP NOT NULL,
+    FILE_NAME VARCHAR,
+    UNTAGGED BOOLEAN GENERATED ALWAYS AS (TAGS IS NULL),
+    SEQ INT NOT NULL
+);
+
+INSERT INTO
+    FILES_NEW (ID, USER_ID, FILE_UNIQUE_ID, FILE_ID, FILE_TYPE, TAGS, DATETIME, FILE_NAME, SEQ)
+SELECT
+    NEXT VALUE FOR FILE_IDS,
+    USER_ID,
+    FILE_UNIQUE_ID,
+    FILE_ID,
+    CASE FILE_TYPE
+        WHEN 'PHOTO' THEN 0
+        WHEN 'VIDEO' THEN 1
+        WHEN 'DOCUMENT' THEN 2
+        WHEN 'AUDIO' THEN 3
+        WHEN 'GIF' THEN 4
+        WHEN 'STICKER' THEN 5
+        WHEN 'VOICE' THEN 6
+    END,
+    TAGS,
+    DATETIME,
+    FILE_NAME,
+    SEQ
+FROM
+    FILES;
+
+CREATE TABLE FILE_TAGS_NEW (
+    ID BIGINT NOT NULL,
+    TAG VARCHAR NOT NULL,
+    USER_ID BIGINT NOT NULL,
+    DATETIME TIMESTAMP NOT NULL,
+    PRIMARY KEY (ID, TAG),
+    FOREIGN KEY (ID) REFERENCES FILES_NEW (ID) ON DELETE CASCADE
+);
+
+INSERT INTO
+    FILE_TAGS_NEW
+SELECT
+    N.ID,
+    T.TAG,
+    T.USER_ID,
+    T.DATETIME
+FROM
+    FILE_TAGS T
+JOIN
+    FILES O
+ON
+    O.ID = T.ID
+JOIN
+    FILES_NEW N
+ON
+    N.USER_ID = O.USER_ID
+    AND N.FILE_UNIQUE_ID = O.FILE_UNIQUE_ID;
+
+DROP TABLE FILE_TAGS;
+
+DROP TABLE FILES;
+
+ALTER TABLE FILES_NEW RENAME TO FILES;
+
+ALTER TABLE FILE_TAGS_NEW RENAME TO FILE_TAGS;
+
+CREATE UNIQUE INDEX IF NOT EXISTS FILES_USER_ID_FILE_UNIQUE_ID ON FILES (USER_ID, FILE_UNIQUE_ID);
+
+CREATE INDEX IF NOT EXISTS FILES_USER_ID_DATETIME ON FILES (USER_ID, DATETIME DESC, ID DESC);
+
+CREATE INDEX IF NOT EXISTS FILES_USER_ID_UNTAGGED_DATETIME ON FILES (USER_ID, UNTAGGED, DATETIME DESC);
+
+CREATE UNIQUE INDEX IF NOT EXISTS FILES_USER_ID_SEQ ON FILES (USER_ID, SEQ);
+
+CREATE INDEX IF NOT EXISTS FILE_TAGS_USER_ID_TAG_DATETIME ON FILE_TAGS (USER_ID, TAG, DATETIME DESC, ID DESC);
@@ -0,0 +1,4 @@
+CREATE TABLE IF NOT EXISTS SHARD_ROUTES (
+    USER_ID BIGINT PRIMARY KEY,
+    SHARD INT NOT NULL
+);
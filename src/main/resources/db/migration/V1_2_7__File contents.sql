@@ -0,0 +1,74 @@
+CREATE SEQUENCE IF NOT EXISTS FILE_CONTENT_IDS;
+
+CREATE TABLE FILE_CONTENTS (
+    ID BIGINT PRIMARY KEY,
+    FILE_UNIQUE_ID VARCHAR NOT NULL,
+    FILE_ID VARCHAR NOT NULL,
+    FILE_TYPE TINYINT NOT NULL,
+    FILE_NAME VARCHAR
+);
+
+INSERT INTO
+    FILE_CONTENTS (ID, FILE_UNIQUE_ID, FILE_ID, FILE_TYPE, FILE_NAME)
+SELECT
+    NEXT VALUE FOR FILE_CONTENT_IDS,
+    FILE_UNIQUE_ID,
+    FILE_ID,
+    FILE_TYPE,
+    FILE_NAME
+FROM (
+    SELECT
+        FILE_UNIQUE_ID,
+        FILE_ID,
+        FILE_TYPE,
+        FILE_NAME,
+        ROW_NUMBER() OVER (PARTITION BY FILE_UNIQUE_ID ORDER BY DATETIME DESC, ID DESC) AS RN
+    FROM
+        FILES
+)
+WHERE
+    RN = 1;
+
+CREATE UNIQUE INDEX IF NOT EXISTS FILE_CONTENTS_FILE_UNIQUE_ID ON FILE_CONTENTS (FILE_UNIQUE_ID);
+
+CREATE TABLE FILES_NEW (
+    ID BIGINT PRIMARY KEY,
+    USER_ID BIGINT NOT NULL,
+    CONTENT_ID BIGINT NOT NULL,
+    TAGS VARCHAR,
+    DATETIME TIMESTAMP NOT NULL,
+    UNTAGGED BOOLEAN GENERATED ALWAYS AS (TAGS IS NULL),
+    SEQ INT NOT NULL
+);
+
+INSERT INTO
+    FILES_NEW (ID, USER_ID, CONTENT_ID, TAGS, DATETIME, SEQ)
+SELECT
+    F.ID,
+    F.USER_ID,
+    C.ID,
+    F.TAGS,
+    F.DATETIME,
+    F.SEQ
+FROM
+    FILES F
+JOIN
+    FILE_CONTENTS C
+ON
+    C.FILE_UNIQUE_ID = F.FILE_UNIQUE_ID;
+
+DROP TABLE FILES CASCADE;
+
+ALTER TABLE FILES_NEW RENAME TO FILES;
+
+CREATE UNIQUE INDEX IF NOT EXISTS FILES_CONTENT_ID_USER_ID ON FILES (CONTENT_ID, USER_ID);
+
+CREATE INDEX IF NOT EXISTS FILES_USER_ID_DATETIME ON FILES (USER_ID, DATETIME DESC, ID DESC);
+
+CREATE INDEX IF NOT EXISTS FILES_USER_ID_UNTAGGED_DATETIME ON FILES (USER_ID, UNTAGGED, DATETIME DESC);
+
+CREATE UNIQUE INDEX IF NOT EXISTS FILES_USER_ID_SEQ ON FILES (USER_ID, SEQ);
+
+ALTER TABLE FILES ADD FOREIGN KEY (CONTENT_ID) REFERENCES FILE_CONTENTS (ID);
+
+ALTER TABLE FILE_TAGS ADD FOREIGN KEY (ID) REFERENCES FILES (ID) ON DELETE CASCADE;
@@ -0,0 +1,3 @@
+DROP INDEX IF EXISTS FILES_USER_ID_SEQ;
+
+CREATE UNIQUE INDEX IF NOT EXISTS FILES_USER_ID_SEQ ON FILES (USER_ID, SEQ DESC);
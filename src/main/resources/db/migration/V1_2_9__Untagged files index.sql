@@ -0,0 +1,3 @@
+DROP INDEX IF EXISTS FILES_USER_ID_UNTAGGED_DATETIME;
+
+CREATE INDEX IF NOT EXISTS FILES_USER_ID_UNTAGGED_DATETIME ON FILES (USER_ID, UNTAGGED, DATETIME DESC, ID DESC);
@@ -0,0 +1,239 @@
+package ru.bestaford.bstorage.database;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.model.Message;
+import com.pengrad.telegrambot.model.User;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.bestaford.bstorage.BStorageBot;
+import ru.bestaford.bstorage.model.File;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileWriterTest {
+
+    static final long USER_ID = 42;
+    static final int REPLY_TIMEOUT_SECONDS = 10;
+
+    @TempDir
+    Path directory;
+
+    HttpServer server;
+    BStorageBot bot;
+    User user;
+    int messageId;
+    String jdbcUrl;
+    BlockingQueue<Integer> replyFileCounts;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        String apiUrl = String.format("http://%s:%d/bot", server.getAddress().getHostString(), server.getAddress().getPort());
+        jdbcUrl = "jdbc:h2:" + directory.resolve("bstorage");
+        replyFileCounts = new LinkedBlockingQueue<>();
+        bot = new BStorageBot(new TelegramBot.Builder("0:test").apiUrl(apiUrl).build(), jdbcUrl, directory.resolve("bstorage-index"), 1);
+        user = BotUtils.fromJson(String.format("{\"id\":%d,\"is_bot\":false,\"first_name\":\"test\"}", USER_ID), User.class);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        bot.stop();
+        server.stop(0);
+    }
+
+    @Test
+    void seqsStayDenseAfterMixedBatches() throws Exception {
+        save(List.of(write("a", "one"), write("b", "two"), write("c", "three")));
+        assertDenseSeqs(3);
+        save(List.of(write("c", "three four"), write("a", null)));
+        assertDenseSeqs(2);
+        save(List.of(write("d", "five"), write("b", null), write("c", "six"), write("e", null)));
+        assertDenseSeqs(3);
+        save(List.of(write("e", "seven"), write("c", null), write("f", "eight"), write("d", "nine")));
+        assertDenseSeqs(3);
+    }
+
+    @Test
+    void repliesAreSentOnlyAfterCommit() throws Exception {
+        bot.requestScheduler.start();
+        save(List.of(write("a", "one"), write("b", null), write("c", "two")));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(3, replyFileCounts.poll(REPLY_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+
+        save(List.of(write("d", "three"), new FileWriter.Write(user, message(), "e", "file-e", null, null, null, Timestamp.valueOf(LocalDateTime.now()))));
+        assertEquals(0, bot.requestScheduler.size());
+        assertNull(replyFileCounts.poll(1, TimeUnit.SECONDS));
+        assertEquals(3, countFiles());
+    }
+
+    @Test
+    void userBatchesDoNotInterleave() throws Exception {
+        Lock userLock = bot.shardRouter.getShard(USER_ID).getUserLock(USER_ID);
+        Future<?> blockedFlush;
+        userLock.lock();
+        try {
+            bot.fileWriter.write(write("blocked", null));
+            blockedFlush = bot.fileWriter.getExecutor(USER_ID).submit(() -> bot.fileWriter.flush(USER_ID));
+            assertThrows(TimeoutException.class, () -> blockedFlush.get(1, TimeUnit.SECONDS));
+            assertEquals(0, countFiles());
+        } finally {
+            userLock.unlock();
+        }
+        blockedFlush.get();
+        assertEquals(1, countFiles());
+
+        int threadCount = 4;
+        int filesPerThread = 150;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                int thread = i;
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < filesPerThread; j++) {
+                        bot.fileWriter.write(write(thread + "-" + j, "u" + thread + " m" + j % 3));
+                        if (j % 10 == 0) {
+                            bot.fileWriter.flush(USER_ID);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        save(List.of());
+        assertDenseSeqs(threadCount * filesPerThread + 1);
+        Map<String, Integer> expectedTagCounts = new HashMap<>();
+        for (int i = 0; i < threadCount; i++) {
+            expectedTagCounts.put("u" + i, filesPerThread);
+        }
+        for (int i = 0; i < 3; i++) {
+            expectedTagCounts.put("m" + i, threadCount * filesPerThread / 3);
+        }
+        assertTagCounts(expectedTagCounts);
+    }
+
+    @Test
+    void tagCountsMatchFilesAfterFlush() throws Exception {
+        save(List.of(write("a", "cat dog"), write("b", "cat"), write("c", null), write("d", "dog bird")));
+        assertTagCounts(Map.of("cat", 2, "dog", 2, "bird", 1));
+        save(List.of(write("a", "dog fish"), write("b", null), write("c", "cat"), write("e", "fish fish")));
+        assertTagCounts(Map.of("cat", 1, "dog", 2, "bird", 1, "fish", 2));
+        save(List.of(write("d", null), write("a", "cat"), write("a", "owl"), write("f", "owl")));
+        assertTagCounts(Map.of("cat", 1, "fish", 1, "owl", 2));
+    }
+
+    void save(List<FileWriter.Write> writes) throws Exception {
+        for (FileWriter.Write write : writes) {
+            bot.fileWriter.write(write);
+        }
+        bot.fileWriter.getExecutor(USER_ID).submit(() -> bot.fileWriter.flush(USER_ID)).get();
+    }
+
+    FileWriter.Write write(String fileUniqueId, String tags) {
+        return new FileWriter.Write(user, message(), fileUniqueId, "file-" + fileUniqueId, null, File.Type.PHOTO, tags, Timestamp.valueOf(LocalDateTime.now()));
+    }
+
+    synchronized Message message() {
+        return BotUtils.fromJson(String.format("{\"message_id\":%d,\"date\":0,\"chat\":{\"id\":%d,\"type\":\"private\"}}", ++messageId, USER_ID), Message.class);
+    }
+
+    int countFiles() throws SQLException {
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, BStorageBot.JDBC_USER, BStorageBot.JDBC_PASSWORD);
+             ResultSet resultSet = connection.createStatement().executeQuery("SELECT COUNT(*) FROM FILES WHERE USER_ID = " + USER_ID)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    void assertTagCounts(Map<String, Integer> expectedTagCounts) throws Exception {
+        Map<String, Integer> userTagCounts = new HashMap<>();
+        Map<String, Integer> fileTagCounts = new HashMap<>();
+        Map<String, Integer> fileTagsCounts = new HashMap<>();
+        try (DatabaseConnection connection = bot.shardRouter.getShard(USER_ID).database.getConnection()) {
+            try (ResultSet resultSet = connection.connection.createStatement().executeQuery("SELECT TAG, COUNT FROM USER_TAGS WHERE USER_ID = " + USER_ID)) {
+                while (resultSet.next()) {
+                    userTagCounts.put(resultSet.getString(1), resultSet.getInt(2));
+                }
+            }
+            try (ResultSet resultSet = connection.connection.createStatement().executeQuery("SELECT TAG, COUNT(*) FROM FILE_TAGS WHERE USER_ID = " + USER_ID + " GROUP BY TAG")) {
+                while (resultSet.next()) {
+                    fileTagCounts.put(resultSet.getString(1), resultSet.getInt(2));
+                }
+            }
+            try (ResultSet resultSet = connection.connection.createStatement().executeQuery("SELECT TAGS FROM FILES WHERE USER_ID = " + USER_ID)) {
+                while (resultSet.next()) {
+                    for (String tag : BStorageBot.splitTags(resultSet.getString(1))) {
+                        fileTagsCounts.merge(tag, 1, Integer::sum);
+                    }
+                }
+            }
+        }
+        assertEquals(expectedTagCounts, userTagCounts);
+        assertEquals(expectedTagCounts, fileTagCounts);
+        assertEquals(expectedTagCounts, fileTagsCounts);
+    }
+
+    void assertDenseSeqs(int count) throws Exception {
+        List<Integer> seqs = new ArrayList<>();
+        try (DatabaseConnection connection = bot.shardRouter.getShard(USER_ID).database.getConnection();
+             ResultSet resultSet = connection.connection.createStatement().executeQuery("SELECT SEQ FROM FILES WHERE USER_ID = " + USER_ID + " ORDER BY SEQ")) {
+            while (resultSet.next()) {
+                seqs.add(resultSet.getInt(1));
+            }
+        }
+        assertEquals(IntStream.range(0, count).boxed().toList(), seqs);
+    }
+
+    void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String response;
+        if (path.endsWith("/getMe")) {
+            response = "{\"ok\":true,\"result\":{\"id\":1,\"is_bot\":true,\"first_name\":\"bstorage\",\"username\":\"bstorage_bot\"}}";
+        } else if (path.endsWith("/sendMessage")) {
+            try {
+                replyFileCounts.add(countFiles());
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+            response = String.format("{\"ok\":true,\"result\":{\"message_id\":1,\"date\":0,\"chat\":{\"id\":%d,\"type\":\"private\"}}}", USER_ID);
+        } else {
+            response = "{\"ok\":true,\"result\":true}";
+        }
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package ru.bestaford.bstorage.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.bestaford.bstorage.metrics.Metrics;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryPlanTest {
+
+    static final long USER_ID = 1;
+    static final int USER_COUNT = 5;
+    static final int FILES_PER_USER = 2000;
+    static final int PAGE_SIZE = 50;
+    static final Pattern SCAN_COUNT_PATTERN = Pattern.compile("scanCount: (\\d+)");
+
+    static final String[] SEED = {
+            """
+            INSERT INTO
+                FILE_CONTENTS (ID, FILE_UNIQUE_ID, FILE_ID, FILE_TYPE)
+            SELECT
+                X,
+                'unique' || X,
+                'file' || X,
+                MOD(X, 7)
+            FROM
+                SYSTEM_RANGE(1, %1$d * %2$d)
+            """,
+            """
+            INSERT INTO
+                FILES (ID, USER_ID, CONTENT_ID, TAGS, DATETIME, SEQ)
+            SELECT
+                X,
+                MOD(X, %1$d) + 1,
+                X,
+                CASE WHEN MOD(X, 3) = 0 THEN NULL ELSE 'a' || MOD(X, 7) || ' b' || MOD(X, 11) END,
+                TIMESTAMP '2020-01-01 00:00:00' + X * INTERVAL '1' SECOND,
+                (X - 1) / %1$d
+            FROM
+                SYSTEM_RANGE(1, %1$d * %2$d)
+            """,
+            """
+            INSERT INTO
+                FILE_TAGS (ID, TAG, USER_ID, DATETIME)
+            SELECT
+                ID,
+                'a' || MOD(ID, 7),
+                USER_ID,
+                DATETIME
+            FROM
+                FILES
+            WHERE
+                TAGS IS NOT NULL
+            UNION ALL
+            SELECT
+                ID,
+                'b' || MOD(ID, 11),
+                USER_ID,
+                DATETIME
+            FROM
+                FILES
+            WHERE
+                TAGS IS NOT NULL
+            """,
+            """
+            INSERT INTO
+                USER_TAGS (USER_ID, TAG, COUNT)
+            SELECT
+                USER_ID,
+                TAG,
+                COUNT(*)
+            FROM
+                FILE_TAGS
+            GROUP BY
+                USER_ID,
+                TAG
+            """,
+            """
+            INSERT INTO
+                SHARD_ROUTES (USER_ID, SHARD)
+            SELECT
+                X,
+                MOD(X, 2)
+            FROM
+                SYSTEM_RANGE(1, %1$d)
+            """,
+            """
+            ALTER SEQUENCE FILE_IDS RESTART WITH %1$d * %2$d + 1
+            """,
+            """
+            ALTER SEQUENCE FILE_CONTENT_IDS RESTART WITH %1$d * %2$d + 1
+            """,
+            """
+            ANALYZE
+            """
+    };
+
+    @TempDir
+    Path directory;
+
+    Database database;
+    DatabaseConnection connection;
+    Set<Query> checkedQueries;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        database = new Database("jdbc:h2:" + directory.resolve("bstorage"), "", "", 1, new Metrics());
+        connection = database.getConnection();
+        try (Statement statement = connection.connection.createStatement()) {
+            for (String sql : SEED) {
+                statement.execute(String.format(sql, USER_COUNT, FILES_PER_USER));
+            }
+        }
+        connection.beginTransaction();
+        checkedQueries = EnumSet.noneOf(Query.class);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        connection.close();
+        database.close();
+    }
+
+    @Test
+    void queriesReadOnlyTheRowsTheyNeed() throws Exception {
+        Timestamp dateTime = Timestamp.valueOf("2020-01-01 02:00:00");
+        Integer[] seqs = new Integer[PAGE_SIZE];
+        Long[] ids = new Long[PAGE_SIZE];
+        String[] fileUniqueIds = new String[PAGE_SIZE];
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            seqs[i] = i * 37;
+            ids[i] = (long) i * 37 * USER_COUNT + USER_ID;
+            fileUniqueIds[i] = "unique" + ids[i];
+        }
+        int untaggedCount = FILES_PER_USER / 3;
+        int userTagCount = 7 + 11;
+        int tagCount = FILES_PER_USER * 2 / 3 / 7;
+
+        assertScanCount(3 * PAGE_SIZE, Query.FIND_RECENT_FILES, USER_ID, PAGE_SIZE);
+        assertScanCount(3 * PAGE_SIZE, Query.FIND_RECENT_FILES_BEFORE, USER_ID, dateTime, Long.MAX_VALUE, PAGE_SIZE);
+        assertScanCount(1, Query.FIND_LAST_FILE_SEQ, USER_ID);
+        assertScanCount(6 * PAGE_SIZE, Query.FIND_FILES_BY_SEQS, seqs, USER_ID);
+        assertScanCount(6 * PAGE_SIZE, Query.FIND_FILES_BY_IDS, ids, USER_ID);
+        assertScanCount(6 * PAGE_SIZE, Query.FIND_FILES_STATE_BY_FILE_UNIQUE_IDS, fileUniqueIds, USER_ID);
+        assertScanCount(4 * PAGE_SIZE, Query.FIND_FILE_CONTENT_IDS_BY_FILE_UNIQUE_IDS, (Object) fileUniqueIds);
+        assertScanCount(3 * PAGE_SIZE, Query.FIND_USER_FILES_BEFORE, USER_ID, Integer.MAX_VALUE, PAGE_SIZE);
+        assertScanCount(PAGE_SIZE + 1, Query.NEXT_FILE_IDS, PAGE_SIZE);
+        assertScanCount(untaggedCount + 1, Query.COUNT_UNTAGGED_FILES, USER_ID);
+        assertScanCount(3 * PAGE_SIZE, Query.FIND_UNTAGGED_FILES, USER_ID, PAGE_SIZE);
+        assertScanCount(3 * PAGE_SIZE, Query.FIND_UNTAGGED_FILES_BEFORE, USER_ID, dateTime, dateTime, Long.MAX_VALUE, PAGE_SIZE);
+        assertScanCount(userTagCount + 1, Query.COUNT_USER_TAGS, USER_ID);
+        assertScanCount(userTagCount + 1, Query.FIND_TOP_USER_TAGS, USER_ID, 0, 10);
+        assertScanCount(userTagCount + 1, Query.FIND_USER_TAGS_BY_PREFIX, USER_ID, "a", "a" + Character.MAX_VALUE, 10);
+        assertScanCount(4 * 3, Query.FIND_USER_TAG_COUNTS, new String[]{"a1", "b2", "c3"}, USER_ID);
+        assertScanCount(PAGE_SIZE + 1, Query.FIND_FILE_TAGS_BY_TAG, USER_ID, "a1", PAGE_SIZE);
+        assertScanCount(3 * tagCount, Query.FIND_FILTERED_FILE_TAGS_BY_TAG,
+                USER_ID, "a1", 1, new String[]{"b2"}, new Integer[]{1}, 1, new String[]{"a2"}, new String[]{"a2"}, PAGE_SIZE);
+        assertScanCount(2, Query.FIND_LAST_FILE_CONTENT_ID);
+        assertScanCount(4 * PAGE_SIZE, Query.DELETE_UNUSED_FILE_CONTENTS, 0, PAGE_SIZE);
+
+        long rowId = ids[0];
+        assertScanCount(4, Query.INSERT_MISSING_FILE_CONTENT, "unique0", "file0", 0);
+        assertScanCount(4, Query.MERGE_FILE, USER_COUNT * FILES_PER_USER + 1, USER_ID, 1, null, dateTime, FILES_PER_USER, null);
+        assertScanCount(4, Query.MOVE_LAST_FILE_SEQ, FILES_PER_USER + 1, USER_ID, FILES_PER_USER);
+        assertScanCount(4, Query.UPDATE_FILE_TAGS_DATETIME, dateTime, rowId);
+        assertScanCount(4, Query.DELETE_FILE_TAG, rowId, "a1");
+        assertScanCount(4, Query.INSERT_FILE_TAG, rowId, "c1", USER_ID, dateTime);
+        assertScanCount(4, Query.ADD_USER_TAG_COUNT, USER_ID, "c1", 1);
+        assertScanCount(userTagCount + 2, Query.DELETE_UNUSED_USER_TAGS, USER_ID);
+        assertScanCount(4, Query.DELETE_FILE, rowId);
+        assertScanCount(4, Query.MERGE_SHARD_ROUTE, USER_ID, 1);
+        assertScanCount(4, Query.DELETE_SHARD_ROUTE, USER_ID);
+        assertScanCount(userTagCount + 2, Query.DELETE_USER_TAGS, USER_ID);
+        assertScanCount(2 * FILES_PER_USER, Query.DELETE_USER_FILES, USER_ID);
+
+        Set<Query> expectedQueries = EnumSet.noneOf(Query.class);
+        for (Query query : Query.values()) {
+            if (!query.tableScan) {
+                expectedQueries.add(query);
+            }
+        }
+        assertEquals(expectedQueries, checkedQueries);
+    }
+
+    void assertScanCount(int limit, Query query, Object... parameters) throws SQLException {
+        String plan;
+        try (PreparedStatement statement = connection.connection.prepareStatement("EXPLAIN ANALYZE " + query.sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                plan = resultSet.getString(1);
+            }
+        }
+        int scanCount = SCAN_COUNT_PATTERN.matcher(plan).results().mapToInt(result -> Integer.parseInt(result.group(1))).sum();
+        assertTrue(scanCount <= limit, () -> String.format("%s read %d rows, expected at most %d:%n%s", query, scanCount, limit, plan));
+        checkedQueries.add(query);
+    }
+}